@@ -1,53 +1,210 @@
 import com.sun.net.httpserver.*;
 import java.io.*;
+import java.math.BigDecimal;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.json.*;
 import java.time.*;
 import java.time.format.*;
+import java.time.temporal.ChronoUnit;
 
 public class ELearningServer {
     private static final int PORT = 8080;
-    private static Connection dbConnection;
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(10);
+    private static final String DB_URL = System.getProperty("elearning.db.url", "jdbc:sqlite:elearning.db");
+    private static ConnectionPool db;
+    private static final CourseCatalog catalog = new CourseCatalog();
+    private static final TimetableCache timetables = new TimetableCache(Integer.getInteger("elearning.timetable.cacheSize", 50000));
+    private static final QuizCache quizzes = new QuizCache(Integer.getInteger("elearning.quiz.cacheSize", 1000));
+    private static final AnswerKeys answerKeys = new AnswerKeys(Integer.getInteger("elearning.quiz.cacheSize", 1000));
+    private static final EventHub events = new EventHub(
+        Integer.getInteger("elearning.events.maxSubscribers", 10000),
+        Integer.getInteger("elearning.events.queueCapacity", 10000),
+        Long.getLong("elearning.events.heartbeatSeconds", 15L),
+        Integer.getInteger("elearning.events.maxPending", 64),
+        Long.getLong("elearning.events.writeTimeoutSeconds", 10L));
+    private static final Sessions sessions = new Sessions(
+        System.getProperty("elearning.auth.secret"),
+        Integer.getInteger("elearning.auth.iterations", 100000),
+        Long.getLong("elearning.auth.tokenTtlSeconds", 8 * 3600L),
+        Long.getLong("elearning.auth.credentialTtlSeconds", 600L),
+        Integer.getInteger("elearning.auth.cacheSize", 100000));
+    private static RequestExecutor executor;
+    private static final Metrics metrics = new Metrics();
+    private static final AttendanceStats attendanceStats = new AttendanceStats();
+    private static final CourseIndex courseIndex = new CourseIndex();
+    private static final ScheduleIndex schedule = new ScheduleIndex();
+    private static StaticFiles staticFiles;
+    private static AttendanceWriter attendanceWriter;
     
     public static void main(String[] args) throws Exception {
         initDatabase();
+        attendanceWriter = new AttendanceWriter(
+            Integer.getInteger("elearning.attendance.queueCapacity", 10000),
+            Integer.getInteger("elearning.attendance.batchSize", 256),
+            Long.getLong("elearning.attendance.maxDelayMs", 5L),
+            "enqueue".equalsIgnoreCase(System.getProperty("elearning.attendance.ack", "commit")));
+        schedule.load();
+        System.out.println("Schedule index: " + schedule.stats());
+        long rebuildStart = System.nanoTime();
+        attendanceStats.rebuild(Integer.getInteger("elearning.db.readers", Runtime.getRuntime().availableProcessors()));
+        System.out.printf("Attendance aggregates: %s built in %d ms%n", attendanceStats.stats(), (System.nanoTime() - rebuildStart) / 1_000_000);
+        attendanceWriter.onCommit(attendanceStats::marked);
+        attendanceWriter.onCommit(events::attendanceMarked);
+        attendanceWriter.start();
+        events.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(attendanceWriter::shutdown));
+        String webRoot = System.getProperty("elearning.webRoot");
+        staticFiles = webRoot != null
+            ? StaticFiles.load(Paths.get(webRoot))
+            : StaticFiles.load(Paths.get("."), Arrays.asList(System.getProperty("elearning.webFiles", "index.html").split(",")));
+        executor = new RequestExecutor(
+            System.getProperty("elearning.executor", "virtual"),
+            Integer.getInteger("elearning.executor.threads", 64),
+            Integer.getInteger("elearning.maxInFlight", 2048));
+        // Small keep-alive responses otherwise sit behind Nagle until the client's delayed ACK (~40ms each)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
         
-        server.createContext("/", new FileHandler());
-        server.createContext("/api/register", new RegisterHandler());
-        server.createContext("/api/login", new LoginHandler());
-        server.createContext("/api/courses", new CoursesHandler());
-        server.createContext("/api/enroll", new EnrollHandler());
-        server.createContext("/api/progress", new ProgressHandler());
-        server.createContext("/api/quiz", new QuizHandler());
-        server.createContext("/api/attendance", new AttendanceHandler());
-        server.createContext("/api/mark-attendance", new MarkAttendanceHandler());
-        server.createContext("/api/timetable", new TimetableHandler());
-        server.createContext("/api/add-course", new AddCourseHandler());
-        server.createContext("/api/delete-course", new DeleteCourseHandler());
-        server.createContext("/api/add-timetable", new AddTimetableHandler());
-        
-        server.setExecutor(threadPool);
+        route(server, "/", new FileHandler());
+        route(server, "/api/register", new RegisterHandler());
+        route(server, "/api/login", new LoginHandler());
+        route(server, "/api/courses", new CoursesHandler());
+        route(server, "/api/courses/search", new CourseSearchHandler());
+        route(server, "/api/enroll", new EnrollHandler());
+        route(server, "/api/progress", new ProgressHandler());
+        route(server, "/api/quiz", new QuizHandler());
+        route(server, "/api/quiz/submit", new QuizSubmitHandler());
+        route(server, "/api/attendance", new AttendanceHandler());
+        route(server, "/api/attendance/summary", new AttendanceSummaryHandler());
+        route(server, "/api/mark-attendance", new MarkAttendanceHandler());
+        route(server, "/api/timetable", new TimetableHandler());
+        route(server, "/api/timetable/free-slots", new FreeSlotsHandler());
+        route(server, "/api/add-course", new AddCourseHandler());
+        route(server, "/api/delete-course", new DeleteCourseHandler());
+        route(server, "/api/add-timetable", new AddTimetableHandler());
+        route(server, "/api/import", new ImportHandler());
+        route(server, "/api/export", new ExportHandler());
+        route(server, "/api/events", new EventsHandler());
+        route(server, "/api/stats", new StatsHandler());
+        route(server, "/metrics", new MetricsHandler());
+        
+        server.setExecutor(executor);
         server.start();
-        System.out.println("Server started on port " + PORT);
+        System.out.println("Server started on port " + PORT + " (" + executor.mode + " threads)");
     }
     
-    private static void initDatabase() throws SQLException {
-        dbConnection = DriverManager.getConnection("jdbc:sqlite:elearning.db");
-        Statement stmt = dbConnection.createStatement();
-        
-        stmt.execute("CREATE TABLE IF NOT EXISTS users (id INTEGER PRIMARY KEY, username TEXT UNIQUE, password TEXT, role TEXT, email TEXT)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS courses (id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, description TEXT, instructor TEXT, duration TEXT, credits INTEGER, category TEXT)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS enrollments (id INTEGER PRIMARY KEY, user_id INTEGER, course_id INTEGER, progress INTEGER DEFAULT 0, enrollment_date TEXT)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS quizzes (id INTEGER PRIMARY KEY, course_id INTEGER, question TEXT, options TEXT, answer INTEGER)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS attendance (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER, course_id INTEGER, date TEXT, status TEXT, marked_at TEXT)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS timetable (id INTEGER PRIMARY KEY AUTOINCREMENT, course_id INTEGER, day TEXT, start_time TEXT, end_time TEXT, room TEXT, instructor TEXT)");
+    /** A thread-per-task executor on virtual threads, or null on a JVM without them. */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    private static void route(HttpServer server, String path, HttpHandler handler) {
+        List<Filter> filters = server.createContext(path, handler).getFilters();
+        filters.add(metrics.filter(path));
+        filters.add(executor.admission());
+        filters.add(PREFLIGHT);
+    }
+    
+    /** Answers CORS preflight requests before they reach handlers that require a token. */
+    private static final Filter PREFLIGHT = new Filter() {
+        public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+            if ("OPTIONS".equals(ex.getRequestMethod())) {
+                setCORS(ex);
+                ex.sendResponseHeaders(204, -1);
+                ex.close();
+                return;
+            }
+            chain.doFilter(ex);
+        }
         
+        public String description() {
+            return "CORS preflight";
+        }
+    };
+    
+    private static void initDatabase() throws SQLException {
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        pragmas.put("journal_mode", System.getProperty("elearning.db.journalMode", "WAL"));
+        pragmas.put("synchronous", System.getProperty("elearning.db.synchronous", "NORMAL"));
+        pragmas.put("cache_size", System.getProperty("elearning.db.cacheSize", "-16384"));
+        pragmas.put("mmap_size", System.getProperty("elearning.db.mmapSize", "268435456"));
+        db = new ConnectionPool(DB_URL,
+            Integer.getInteger("elearning.db.readers", Runtime.getRuntime().availableProcessors()),
+            Long.getLong("elearning.db.timeoutMs", 5000L),
+            pragmas);
+        try (ConnectionPool.Lease lease = db.write(); Statement stmt = lease.connection().createStatement()) {
+            int applied = Migrations.apply(lease.connection());
+            insertSampleData(stmt);
+            promoteAdmins(lease);
+            // Refresh planner statistics after index changes; otherwise let SQLite decide what is stale
+            stmt.execute(applied > 0 ? "ANALYZE" : "PRAGMA optimize");
+        }
+    }
+    
+    /**
+     * Makes the comma-separated usernames in {@code elearning.admins} the only
+     * admins: the named users are promoted and any other admin is demoted to
+     * student. Without the property the roles in the database are left alone.
+     */
+    private static void promoteAdmins(ConnectionPool.Lease lease) throws SQLException {
+        String property = System.getProperty("elearning.admins");
+        if (property == null) {
+            return;
+        }
+        Set<String> admins = new HashSet<>();
+        for (String username : property.split(",")) {
+            if (!username.isBlank()) {
+                admins.add(username.trim());
+            }
+        }
+        for (String username : admins) {
+            PreparedStatement stmt = lease.prepare(Sql.PROMOTE_ADMIN);
+            stmt.setString(1, username);
+            if (stmt.executeUpdate() == 0) {
+                System.err.println("elearning.admins: no user named " + username);
+            }
+        }
+        List<String> demoted = new ArrayList<>();
+        try (ResultSet rs = lease.query(lease.prepare(Sql.ADMINS))) {
+            while (rs.next()) {
+                if (!admins.contains(rs.getString(1))) {
+                    demoted.add(rs.getString(1));
+                }
+            }
+        }
+        for (String username : demoted) {
+            PreparedStatement stmt = lease.prepare(Sql.DEMOTE_ADMIN);
+            stmt.setString(1, username);
+            stmt.executeUpdate();
+            System.out.println("elearning.admins: " + username + " is no longer an admin");
+        }
+    }
+    
+    private static void insertSampleData(Statement stmt) throws SQLException {
         // Insert sample data if empty
         ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM courses");
         if (rs.next() && rs.getInt(1) == 0) {
@@ -75,63 +232,104 @@ public class ELearningServer {
     
     static class FileHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            String response = "<!DOCTYPE html><html><head><title>Redirect</title></head><body><script>window.location.href='index.html';</script></body></html>";
-            ex.getResponseHeaders().set("Content-Type", "text/html");
-            ex.sendResponseHeaders(200, response.length());
-            ex.getResponseBody().write(response.getBytes());
+            String method = ex.getRequestMethod();
+            String path = ex.getRequestURI().getPath();
+            StaticFiles.Asset asset = staticFiles.get(path.equals("/") ? "/index.html" : path);
+            if (asset == null || !("GET".equals(method) || "HEAD".equals(method))) {
+                ex.sendResponseHeaders(asset == null ? 404 : 405, -1);
+                ex.close();
+                return;
+            }
+            
+            String acceptEncoding = ex.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = asset.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+            String etag = gzip ? asset.gzipEtag : asset.etag;
+            
+            Headers headers = ex.getResponseHeaders();
+            headers.set("Content-Type", asset.contentType);
+            headers.set("ETag", etag);
+            headers.set("Last-Modified", asset.lastModified);
+            headers.set("Cache-Control", asset.cacheControl);
+            if (asset.gzipped != null) {
+                headers.set("Vary", "Accept-Encoding");
+            }
+            
+            String ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+            boolean notModified = ifNoneMatch != null
+                ? etagMatches(ifNoneMatch, etag)
+                : asset.lastModified.equals(ex.getRequestHeaders().getFirst("If-Modified-Since"));
+            if (notModified) {
+                ex.sendResponseHeaders(304, -1);
+                ex.close();
+                return;
+            }
+            
+            ByteBuffer body = gzip ? asset.gzipped : asset.body;
+            if (gzip) {
+                headers.set("Content-Encoding", "gzip");
+            }
+            if ("HEAD".equals(method)) {
+                headers.set("Content-Length", Integer.toString(body.remaining()));
+                ex.sendResponseHeaders(200, -1);
+            } else {
+                ex.sendResponseHeaders(200, body.remaining());
+                ex.getResponseBody().write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            }
             ex.close();
         }
     }
     
     static class RegisterHandler implements HttpHandler {
+        private static final Set<String> SELF_REGISTERED_ROLES = Set.of("student", "instructor");
+        
         public void handle(HttpExchange ex) throws IOException {
             setCORS(ex);
             
-            // Handle OPTIONS preflight request
-            if ("OPTIONS".equals(ex.getRequestMethod())) {
-                ex.sendResponseHeaders(204, -1);
-                ex.close();
-                return;
-            }
-            
-            threadPool.submit(() -> {
-                try {
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        // Validate input
-                        if (json.getString("username").trim().isEmpty() || 
-                            json.getString("email").trim().isEmpty() ||
-                            json.getString("password").trim().isEmpty()) {
-                            sendJSON(ex, new JSONObject().put("success", false).put("message", "All fields are required"));
-                            return;
-                        }
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "INSERT INTO users (username, password, role, email) VALUES (?, ?, ?, ?)");
+            try {
+                if ("POST".equals(ex.getRequestMethod())) {
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    // Validate input
+                    if (json.getString("username").trim().isEmpty() || 
+                        json.getString("email").trim().isEmpty() ||
+                        json.getString("password").trim().isEmpty()) {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "All fields are required"));
+                        return;
+                    }
+                    
+                    // Admins are named at startup through elearning.admins, never self-registered
+                    String role = json.optString("role", "student");
+                    if (!SELF_REGISTERED_ROLES.contains(role)) {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Invalid role: " + role));
+                        return;
+                    }
+                    // Hash before taking the write lease so a slow PBKDF2 never holds up other writers
+                    String hash = sessions.hash(json.getString("password"));
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        PreparedStatement stmt = lease.prepare(Sql.REGISTER);
                         stmt.setString(1, json.getString("username").trim());
-                        stmt.setString(2, json.getString("password"));
-                        stmt.setString(3, json.optString("role", "student"));
+                        stmt.setString(2, hash);
+                        stmt.setString(3, role);
                         stmt.setString(4, json.getString("email").trim());
                         stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Registration successful! You can now login."));
                     }
-                } catch (SQLException e) {
-                    try {
-                        if (e.getMessage().contains("UNIQUE")) {
-                            sendJSON(ex, new JSONObject().put("success", false).put("message", "Username already exists"));
-                        } else {
-                            sendJSON(ex, new JSONObject().put("success", false).put("message", "Registration failed: " + e.getMessage()));
-                        }
-                    } catch (IOException ignored) {}
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Error: " + e.getMessage()));
-                    } catch (IOException ignored) {}
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Registration successful! You can now login."));
                 }
-            });
+            } catch (SQLException e) {
+                try {
+                    if (e.getMessage().contains("UNIQUE")) {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Username already exists"));
+                    } else {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Registration failed: " + e.getMessage()));
+                    }
+                } catch (IOException ignored) {}
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", "Error: " + e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
@@ -139,302 +337,559 @@ public class ELearningServer {
         public void handle(HttpExchange ex) throws IOException {
             setCORS(ex);
             
-            // Handle OPTIONS preflight request
-            if ("OPTIONS".equals(ex.getRequestMethod())) {
-                ex.sendResponseHeaders(204, -1);
-                ex.close();
-                return;
-            }
-            
-            threadPool.submit(() -> {
-                try {
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "SELECT id, username, role FROM users WHERE username=? AND password=?");
-                        stmt.setString(1, json.getString("username"));
-                        stmt.setString(2, json.getString("password"));
-                        ResultSet rs = stmt.executeQuery();
-                        
-                        if (rs.next()) {
-                            JSONObject user = new JSONObject();
-                            user.put("id", rs.getInt("id"));
-                            user.put("username", rs.getString("username"));
-                            user.put("role", rs.getString("role"));
-                            sendJSON(ex, new JSONObject().put("success", true).put("user", user));
-                        } else {
-                            sendJSON(ex, new JSONObject().put("success", false).put("message", "Invalid username or password"));
+            try {
+                if ("POST".equals(ex.getRequestMethod())) {
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    String username = json.getString("username");
+                    String password = json.getString("password");
+                    Sessions.Credential user = sessions.recall(username, password);
+                    if (user == null) {
+                        int id = 0;
+                        String role = null;
+                        String stored = null;
+                        try (ConnectionPool.Lease lease = db.read()) {
+                            PreparedStatement stmt = lease.prepare(Sql.LOGIN);
+                            stmt.setString(1, username);
+                            try (ResultSet rs = lease.query(stmt)) {
+                                if (rs.next()) {
+                                    id = rs.getInt("id");
+                                    role = rs.getString("role");
+                                    stored = rs.getString("password");
+                                }
+                            }
+                        }
+                        // Hash outside the lease so a slow PBKDF2 never holds a pooled connection
+                        if (sessions.matches(password, stored)) {
+                            if (sessions.needsRehash(stored)) {
+                                String hash = sessions.hash(password);
+                                try (ConnectionPool.Lease lease = db.write()) {
+                                    PreparedStatement stmt = lease.prepare(Sql.SET_PASSWORD);
+                                    stmt.setString(1, hash);
+                                    stmt.setInt(2, id);
+                                    stmt.executeUpdate();
+                                }
+                                sessions.upgradedPassword();
+                            }
+                            user = sessions.remember(id, username, role, password);
                         }
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Login error: " + e.getMessage()));
-                    } catch (IOException ignored) {}
+                    
+                    if (user != null) {
+                        sendJSON(ex, new JSONObject()
+                            .put("success", true)
+                            .put("user", new JSONObject().put("id", user.userId).put("username", user.username).put("role", user.role))
+                            .put("token", sessions.issue(user.userId, user.role)));
+                    } else {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Invalid username or password"));
+                    }
                 }
-            });
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", "Login error: " + e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
     static class CoursesHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    Statement stmt = dbConnection.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT * FROM courses");
-                    
-                    JSONArray courses = new JSONArray();
-                    while (rs.next()) {
-                        JSONObject course = new JSONObject();
-                        course.put("id", rs.getInt("id"));
-                        course.put("title", rs.getString("title"));
-                        course.put("description", rs.getString("description"));
-                        course.put("instructor", rs.getString("instructor"));
-                        course.put("duration", rs.getString("duration"));
-                        course.put("credits", rs.getInt("credits"));
-                        course.put("category", rs.getString("category"));
-                        courses.put(course);
-                    }
-                    
-                    sendJSON(ex, new JSONObject().put("courses", courses));
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("error", e.getMessage()));
-                    } catch (IOException ignored) {}
+            try {
+                setCORS(ex);
+                CourseCatalog.Snapshot snapshot = catalog.snapshot();
+                ex.getResponseHeaders().set("ETag", snapshot.etag);
+                ex.getResponseHeaders().set("Cache-Control", "no-cache");
+                if (etagMatches(ex.getRequestHeaders().getFirst("If-None-Match"), snapshot.etag)) {
+                    ex.sendResponseHeaders(304, -1);
+                    ex.close();
+                    return;
                 }
-            });
+                sendJSON(ex, snapshot.body);
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
-    static class EnrollHandler implements HttpHandler {
+    /**
+     * Ranked, faceted course search: {@code ?q=} with optional {@code category},
+     * {@code credits}, {@code offset} and {@code limit}.
+     */
+    static class CourseSearchHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
+            try {
+                setCORS(ex);
+                Map<String, String> params = queryParams(ex);
+                String credits = params.get("credits");
+                sendJSON(ex, courseIndex.search(
+                    params.get("q"),
+                    params.get("category"),
+                    credits == null ? null : Integer.valueOf(credits),
+                    Integer.parseInt(params.getOrDefault("offset", "0")),
+                    Integer.parseInt(params.getOrDefault("limit", "20"))));
+            } catch (Exception e) {
                 try {
-                    setCORS(ex);
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        String currentDate = LocalDate.now().toString();
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "INSERT INTO enrollments (user_id, course_id, progress, enrollment_date) VALUES (?, ?, 0, ?)");
-                        stmt.setInt(1, json.getInt("userId"));
-                        stmt.setInt(2, json.getInt("courseId"));
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    static class EnrollHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    int userId = json.getInt("userId");
+                    int courseId = json.getInt("courseId");
+                    if (authorize(ex, userId) == null) {
+                        return;
+                    }
+                    String currentDate = LocalDate.now().toString();
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        PreparedStatement stmt = lease.prepare(Sql.ENROLL);
+                        stmt.setInt(1, userId);
+                        stmt.setInt(2, courseId);
                         stmt.setString(3, currentDate);
                         stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Enrolled successfully"));
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    timetables.enrolled(userId, courseId);
+                    events.enrolled(userId, courseId);
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Enrolled successfully"));
                 }
-            });
+            } catch (SQLException e) {
+                try {
+                    if (e.getMessage().contains("UNIQUE")) {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "Already enrolled in this course"));
+                    } else {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                    }
+                } catch (IOException ignored) {}
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
     static class ProgressHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    String query = ex.getRequestURI().getQuery();
-                    int userId = Integer.parseInt(query.split("=")[1]);
-                    
-                    PreparedStatement stmt = dbConnection.prepareStatement(
-                        "SELECT c.*, e.progress, e.enrollment_date FROM enrollments e JOIN courses c ON e.course_id=c.id WHERE e.user_id=?");
+            JsonWriter json = null;
+            try {
+                setCORS(ex);
+                String query = ex.getRequestURI().getQuery();
+                int userId = Integer.parseInt(query.split("=")[1]);
+                if (authorize(ex, userId) == null) {
+                    return;
+                }
+                
+                try (ConnectionPool.Lease lease = db.read()) {
+                    PreparedStatement stmt = lease.prepare(Sql.PROGRESS);
                     stmt.setInt(1, userId);
-                    ResultSet rs = stmt.executeQuery();
-                    
-                    JSONArray enrolled = new JSONArray();
-                    while (rs.next()) {
-                        JSONObject item = new JSONObject();
-                        item.put("id", rs.getInt("id"));
-                        item.put("title", rs.getString("title"));
-                        item.put("instructor", rs.getString("instructor"));
-                        item.put("credits", rs.getInt("credits"));
-                        item.put("progress", rs.getInt("progress"));
-                        item.put("enrollmentDate", rs.getString("enrollment_date"));
-                        enrolled.put(item);
+                    try (ResultSet rs = lease.query(stmt)) {
+                        json = new JsonWriter(ex, 200);
+                        json.beginObject().name("enrolled").beginArray();
+                        while (rs.next()) {
+                            json.beginObject()
+                                .field("id", rs.getInt("id"))
+                                .field("title", rs.getString("title"))
+                                .field("instructor", rs.getString("instructor"))
+                                .field("credits", rs.getInt("credits"))
+                                .field("progress", rs.getInt("progress"))
+                                .field("enrollmentDate", rs.getString("enrollment_date"))
+                                .endObject();
+                        }
+                        json.endArray().endObject();
                     }
-                    
-                    sendJSON(ex, new JSONObject().put("enrolled", enrolled));
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("error", e.getMessage()));
-                    } catch (IOException ignored) {}
                 }
-            });
+                json.finish();
+            } catch (Exception e) {
+                sendError(ex, json, e);
+            }
         }
     }
     
     static class QuizHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
+            try {
+                setCORS(ex);
+                String query = ex.getRequestURI().getQuery();
+                int courseId = Integer.parseInt(query.split("=")[1]);
+                
+                QuizCache.Entry quiz = quizzes.get(courseId);
+                ex.getResponseHeaders().set("ETag", quiz.etag);
+                ex.getResponseHeaders().set("Cache-Control", "no-cache");
+                if (etagMatches(ex.getRequestHeaders().getFirst("If-None-Match"), quiz.etag)) {
+                    ex.sendResponseHeaders(304, -1);
+                    ex.close();
+                    return;
+                }
+                sendJSON(ex, quiz.body);
+            } catch (Exception e) {
                 try {
-                    setCORS(ex);
-                    String query = ex.getRequestURI().getQuery();
-                    int courseId = Integer.parseInt(query.split("=")[1]);
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    /**
+     * Grades a quiz against the cached answer key:
+     * {@code {"userId":1,"courseId":1,"answers":{"<quizId>":<optionIndex>,...}}}.
+     * Unanswered questions count as wrong. The attempt is stored and the
+     * enrollment's progress raised to the score in one transaction, which rolls
+     * back without an attempt when the user is not enrolled in the course.
+     */
+    static class QuizSubmitHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
                     
-                    PreparedStatement stmt = dbConnection.prepareStatement(
-                        "SELECT * FROM quizzes WHERE course_id=?");
-                    stmt.setInt(1, courseId);
-                    ResultSet rs = stmt.executeQuery();
+                    int userId = json.getInt("userId");
+                    int courseId = json.getInt("courseId");
+                    if (authorize(ex, userId) == null) {
+                        return;
+                    }
+                    JSONObject submitted = json.getJSONObject("answers");
+                    AnswerKeys.Key key = answerKeys.get(courseId);
+                    if (key.size() == 0) {
+                        sendJSON(ex, 404, new JSONObject().put("success", false).put("message", "This course has no quiz"));
+                        return;
+                    }
                     
-                    JSONArray quizzes = new JSONArray();
-                    while (rs.next()) {
-                        JSONObject quiz = new JSONObject();
-                        quiz.put("id", rs.getInt("id"));
-                        quiz.put("question", rs.getString("question"));
-                        quiz.put("options", new JSONArray(rs.getString("options").split("\\|")));
-                        quizzes.put(quiz);
+                    int score = 0;
+                    JSONObject results = new JSONObject();
+                    for (int i = 0; i < key.size(); i++) {
+                        String questionId = Integer.toString(key.questionIds[i]);
+                        boolean correct = submitted.optInt(questionId, -1) == key.answers[i];
+                        if (correct) {
+                            score++;
+                        }
+                        results.put(questionId, correct);
                     }
+                    for (String questionId : submitted.keySet()) {
+                        if (!results.has(questionId)) {
+                            sendJSON(ex, 400, new JSONObject().put("success", false).put("message", "Question " + questionId + " is not part of this course's quiz"));
+                            return;
+                        }
+                    }
+                    int percentage = score * 100 / key.size();
                     
-                    sendJSON(ex, new JSONObject().put("quizzes", quizzes));
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("error", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    boolean enrolled;
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        Connection conn = lease.connection();
+                        conn.setAutoCommit(false);
+                        PreparedStatement progress = lease.prepare(Sql.RAISE_PROGRESS);
+                        progress.setInt(1, percentage);
+                        progress.setInt(2, userId);
+                        progress.setInt(3, courseId);
+                        enrolled = progress.executeUpdate() > 0;
+                        if (enrolled) {
+                            PreparedStatement attempt = lease.prepare(Sql.ADD_QUIZ_ATTEMPT);
+                            attempt.setInt(1, userId);
+                            attempt.setInt(2, courseId);
+                            attempt.setInt(3, score);
+                            attempt.setInt(4, key.size());
+                            attempt.setString(5, submitted.toString());
+                            attempt.setString(6, LocalDateTime.now().toString());
+                            attempt.executeUpdate();
+                            conn.commit();
+                        }
+                    }
+                    if (!enrolled) {
+                        sendJSON(ex, 403, new JSONObject().put("success", false).put("message", "Not enrolled in this course"));
+                        return;
+                    }
+                    
+                    sendJSON(ex, new JSONObject()
+                        .put("success", true)
+                        .put("score", score)
+                        .put("total", key.size())
+                        .put("percentage", percentage)
+                        .put("results", results));
                 }
-            });
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
+    /**
+     * Attendance history, newest first, in keyset-paginated pages:
+     * {@code ?userId=1&limit=100&after=<nextCursor>}. The cursor is the (date, id)
+     * of the last row returned, so every page is an index range scan no matter
+     * how deep it is. {@code export=true} streams the whole history instead,
+     * walking the same pages and giving the read lease back between them so a
+     * slow download never pins a pooled connection.
+     */
     static class AttendanceHandler implements HttpHandler {
+        private static final int DEFAULT_LIMIT = 100;
+        private static final int MAX_LIMIT = 1000;
+        
+        static final class Row {
+            final int id;
+            final String courseTitle;
+            final String date;
+            final String status;
+            
+            Row(ResultSet rs) throws SQLException {
+                this.id = rs.getInt("id");
+                this.courseTitle = rs.getString("title");
+                this.date = rs.getString("date");
+                this.status = rs.getString("status");
+            }
+        }
+        
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    String query = ex.getRequestURI().getQuery();
-                    int userId = Integer.parseInt(query.split("=")[1]);
-                    
-                    PreparedStatement stmt = dbConnection.prepareStatement(
-                        "SELECT a.*, c.title FROM attendance a JOIN courses c ON a.course_id=c.id WHERE a.user_id=? ORDER BY a.date DESC");
-                    stmt.setInt(1, userId);
-                    ResultSet rs = stmt.executeQuery();
-                    
-                    JSONArray records = new JSONArray();
-                    while (rs.next()) {
-                        JSONObject record = new JSONObject();
-                        record.put("courseTitle", rs.getString("title"));
-                        record.put("date", rs.getString("date"));
-                        record.put("status", rs.getString("status"));
-                        records.put(record);
+            JsonWriter json = null;
+            try {
+                setCORS(ex);
+                Map<String, String> params = queryParams(ex);
+                int userId = Integer.parseInt(params.get("userId"));
+                if (authorize(ex, userId) == null) {
+                    return;
+                }
+                boolean export = Boolean.parseBoolean(params.get("export"));
+                int limit = export
+                    ? MAX_LIMIT
+                    : Math.min(MAX_LIMIT, Math.max(1, Integer.parseInt(params.getOrDefault("limit", Integer.toString(DEFAULT_LIMIT)))));
+                String afterDate = null;
+                int afterId = 0;
+                String after = export ? null : params.get("after");
+                if (after != null) {
+                    int split = after.lastIndexOf('_');
+                    if (split < 0) {
+                        throw new IllegalArgumentException("Invalid cursor: " + after);
                     }
-                    
-                    sendJSON(ex, new JSONObject().put("attendance", records));
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("error", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    afterDate = after.substring(0, split);
+                    afterId = Integer.parseInt(after.substring(split + 1));
                 }
-            });
+                if (export) {
+                    ex.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"attendance-" + userId + ".json\"");
+                }
+                
+                boolean more;
+                do {
+                    List<Row> page = new ArrayList<>(limit + 1);
+                    try (ConnectionPool.Lease lease = db.read()) {
+                        PreparedStatement stmt;
+                        if (afterDate == null) {
+                            stmt = lease.prepare(Sql.ATTENDANCE_PAGE);
+                            stmt.setInt(1, userId);
+                            stmt.setInt(2, limit + 1);
+                        } else {
+                            stmt = lease.prepare(Sql.ATTENDANCE_PAGE_AFTER);
+                            stmt.setInt(1, userId);
+                            stmt.setString(2, afterDate);
+                            stmt.setInt(3, afterId);
+                            stmt.setInt(4, limit + 1);
+                        }
+                        try (ResultSet rs = lease.query(stmt)) {
+                            while (rs.next()) {
+                                page.add(new Row(rs));
+                            }
+                        }
+                    }
+                    // The query fetches one row past the limit to tell whether another page exists
+                    more = page.size() > limit;
+                    if (more) {
+                        page.remove(limit);
+                    }
+                    if (json == null) {
+                        json = new JsonWriter(ex, 200);
+                        json.beginObject().name("attendance").beginArray();
+                    }
+                    for (Row row : page) {
+                        json.beginObject()
+                            .field("id", row.id)
+                            .field("courseTitle", row.courseTitle)
+                            .field("date", row.date)
+                            .field("status", row.status)
+                            .endObject();
+                        afterDate = row.date;
+                        afterId = row.id;
+                    }
+                } while (export && more);
+                json.endArray();
+                if (!export) {
+                    json.field("nextCursor", more ? afterDate + "_" + afterId : null);
+                }
+                json.endObject();
+                json.finish();
+            } catch (Exception e) {
+                sendError(ex, json, e);
+            }
         }
     }
     
-    static class MarkAttendanceHandler implements HttpHandler {
+    /**
+     * Attendance counts and rates from the in-memory aggregates:
+     * {@code ?userId=} for a student's overall and per-course figures (optionally
+     * narrowed with {@code &courseId=}), or {@code ?courseId=} alone for a class.
+     */
+    static class AttendanceSummaryHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        String currentDate = LocalDate.now().toString();
-                        String currentTime = LocalDateTime.now().toString();
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "INSERT INTO attendance (user_id, course_id, date, status, marked_at) VALUES (?, ?, ?, ?, ?)");
-                        stmt.setInt(1, json.getInt("userId"));
-                        stmt.setInt(2, json.getInt("courseId"));
-                        stmt.setString(3, currentDate);
-                        stmt.setString(4, json.getString("status"));
-                        stmt.setString(5, currentTime);
-                        stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Attendance marked"));
+            try {
+                setCORS(ex);
+                Map<String, String> params = queryParams(ex);
+                String userId = params.get("userId");
+                String courseId = params.get("courseId");
+                JSONObject summary;
+                if (userId != null) {
+                    if (authorize(ex, Integer.parseInt(userId)) == null) {
+                        return;
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    summary = courseId == null
+                        ? attendanceStats.user(Integer.parseInt(userId))
+                        : attendanceStats.userCourse(Integer.parseInt(userId), Integer.parseInt(courseId));
+                } else if (courseId != null) {
+                    if (authenticate(ex) == null) {
+                        return;
+                    }
+                    summary = attendanceStats.course(Integer.parseInt(courseId));
+                } else {
+                    sendJSON(ex, 400, new JSONObject().put("error", "userId or courseId is required"));
+                    return;
                 }
-            });
+                sendJSON(ex, new JSONObject().put("summary", summary));
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
-    static class TimetableHandler implements HttpHandler {
+    static class MarkAttendanceHandler implements HttpHandler {
+        private static final long ACK_TIMEOUT_MILLIS = Long.getLong("elearning.attendance.ackTimeoutMs", 10000L);
+        
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    String query = ex.getRequestURI().getQuery();
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
                     
-                    if (query != null && query.contains("userId")) {
-                        int userId = Integer.parseInt(query.split("=")[1]);
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "SELECT t.*, c.title FROM timetable t JOIN courses c ON t.course_id=c.id JOIN enrollments e ON c.id=e.course_id WHERE e.user_id=? ORDER BY CASE t.day WHEN 'Monday' THEN 1 WHEN 'Tuesday' THEN 2 WHEN 'Wednesday' THEN 3 WHEN 'Thursday' THEN 4 WHEN 'Friday' THEN 5 WHEN 'Saturday' THEN 6 WHEN 'Sunday' THEN 7 END, t.start_time");
-                        stmt.setInt(1, userId);
-                        ResultSet rs = stmt.executeQuery();
-                        
-                        JSONArray schedule = new JSONArray();
-                        while (rs.next()) {
-                            JSONObject item = new JSONObject();
-                            item.put("courseTitle", rs.getString("title"));
-                            item.put("day", rs.getString("day"));
-                            item.put("startTime", rs.getString("start_time"));
-                            item.put("endTime", rs.getString("end_time"));
-                            item.put("room", rs.getString("room"));
-                            item.put("instructor", rs.getString("instructor"));
-                            schedule.put(item);
-                        }
-                        
-                        sendJSON(ex, new JSONObject().put("timetable", schedule));
+                    String currentDate = LocalDate.now().toString();
+                    String currentTime = LocalDateTime.now().toString();
+                    
+                    // Either a single mark or a whole roster: {"courseId": 1, "records": [{"userId": 2, "status": "Present"}, ...]}
+                    List<AttendanceWriter.Mark> marks = new ArrayList<>();
+                    JSONArray records = json.optJSONArray("records");
+                    if (records == null) {
+                        marks.add(new AttendanceWriter.Mark(json.getInt("userId"), json.getInt("courseId"), currentDate, json.getString("status"), currentTime));
                     } else {
-                        Statement stmt = dbConnection.createStatement();
-                        ResultSet rs = stmt.executeQuery(
-                            "SELECT t.*, c.title FROM timetable t JOIN courses c ON t.course_id=c.id ORDER BY CASE t.day WHEN 'Monday' THEN 1 WHEN 'Tuesday' THEN 2 WHEN 'Wednesday' THEN 3 WHEN 'Thursday' THEN 4 WHEN 'Friday' THEN 5 WHEN 'Saturday' THEN 6 WHEN 'Sunday' THEN 7 END, t.start_time");
-                        
-                        JSONArray schedule = new JSONArray();
+                        for (int i = 0; i < records.length(); i++) {
+                            JSONObject record = records.getJSONObject(i);
+                            marks.add(new AttendanceWriter.Mark(record.getInt("userId"), record.has("courseId") ? record.getInt("courseId") : json.getInt("courseId"),
+                                currentDate, record.getString("status"), currentTime));
+                        }
+                    }
+                    
+                    Sessions.Session session = authenticate(ex);
+                    if (session == null) {
+                        return;
+                    }
+                    // Students may only mark themselves; rosters are for admins. Instructors get no
+                    // roster rights because courses name their instructor only as display text.
+                    for (AttendanceWriter.Mark mark : marks) {
+                        if (!session.mayActFor(mark.userId)) {
+                            sendJSON(ex, 403, new JSONObject().put("success", false).put("message", "Not allowed for this user"));
+                            return;
+                        }
+                    }
+                    
+                    CompletableFuture<Void> done = attendanceWriter.submit(marks);
+                    if (done == null) {
+                        sendJSON(ex, 503, new JSONObject().put("success", false).put("message", "Attendance queue is full, please retry"));
+                        return;
+                    }
+                    if (!attendanceWriter.ackOnEnqueue) {
+                        try {
+                            done.get(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                        } catch (TimeoutException e) {
+                            sendJSON(ex, 504, new JSONObject().put("success", false).put("message", "Attendance is still being saved, check before retrying"));
+                            return;
+                        }
+                    }
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Attendance marked").put("count", marks.size()));
+                }
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    static class TimetableHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            JsonWriter json = null;
+            try {
+                setCORS(ex);
+                String query = ex.getRequestURI().getQuery();
+                
+                if (query != null && query.contains("userId")) {
+                    int userId = Integer.parseInt(query.split("=")[1]);
+                    if (authorize(ex, userId) == null) {
+                        return;
+                    }
+                    sendJSON(ex, timetables.get(userId).body);
+                } else {
+                    try (ConnectionPool.Lease lease = db.read();
+                         ResultSet rs = lease.query(lease.prepare(Sql.TIMETABLE_ALL))) {
+                        json = new JsonWriter(ex, 200);
+                        json.beginObject().name("timetable").beginArray();
                         while (rs.next()) {
-                            JSONObject item = new JSONObject();
-                            item.put("id", rs.getInt("id"));
-                            item.put("courseId", rs.getInt("course_id"));
-                            item.put("courseTitle", rs.getString("title"));
-                            item.put("day", rs.getString("day"));
-                            item.put("startTime", rs.getString("start_time"));
-                            item.put("endTime", rs.getString("end_time"));
-                            item.put("room", rs.getString("room"));
-                            item.put("instructor", rs.getString("instructor"));
-                            schedule.put(item);
+                            json.beginObject()
+                                .field("id", rs.getInt("id"))
+                                .field("courseId", rs.getInt("course_id"))
+                                .field("courseTitle", rs.getString("title"))
+                                .field("day", rs.getString("day"))
+                                .field("startTime", rs.getString("start_time"))
+                                .field("endTime", rs.getString("end_time"))
+                                .field("room", rs.getString("room"))
+                                .field("instructor", rs.getString("instructor"))
+                                .endObject();
                         }
-                        
-                        sendJSON(ex, new JSONObject().put("timetable", schedule));
+                        json.endArray().endObject();
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("error", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    json.finish();
                 }
-            });
+            } catch (Exception e) {
+                sendError(ex, json, e);
+            }
         }
     }
     
     static class AddCourseHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "INSERT INTO courses (title, description, instructor, duration, credits, category) VALUES (?, ?, ?, ?, ?, ?)");
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    if (authorizeAdmin(ex) == null) {
+                        return;
+                    }
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    Course course;
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        PreparedStatement stmt = lease.prepare(Sql.ADD_COURSE);
                         stmt.setString(1, json.getString("title"));
                         stmt.setString(2, json.getString("description"));
                         stmt.setString(3, json.getString("instructor"));
@@ -442,83 +897,4063 @@ public class ELearningServer {
                         stmt.setInt(5, json.getInt("credits"));
                         stmt.setString(6, json.getString("category"));
                         stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Course added successfully"));
+                        try (ResultSet rs = lease.query(lease.prepare(Sql.LAST_COURSE))) {
+                            rs.next();
+                            course = new Course(rs);
+                        }
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    catalog.invalidate();
+                    courseIndex.add(course);
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Course added successfully"));
                 }
-            });
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
     static class DeleteCourseHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
-                try {
-                    setCORS(ex);
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement("DELETE FROM courses WHERE id=?");
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    if (authorizeAdmin(ex) == null) {
+                        return;
+                    }
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        // The course's timetable goes with it, or a restart would book its slots again
+                        lease.connection().setAutoCommit(false);
+                        PreparedStatement stmt = lease.prepare(Sql.DELETE_COURSE_TIMETABLE);
+                        stmt.setInt(1, json.getInt("courseId"));
+                        stmt.executeUpdate();
+                        stmt = lease.prepare(Sql.DELETE_COURSE);
                         stmt.setInt(1, json.getInt("courseId"));
                         stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Course deleted"));
+                        lease.connection().commit();
                     }
-                } catch (Exception e) {
-                    try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
-                    } catch (IOException ignored) {}
+                    catalog.invalidate();
+                    courseIndex.remove(json.getInt("courseId"));
+                    schedule.courseDeleted(json.getInt("courseId"));
+                    timetables.courseDeleted(json.getInt("courseId"));
+                    quizzes.invalidate(json.getInt("courseId"));
+                    answerKeys.invalidate(json.getInt("courseId"));
+                    events.courseDeleted(json.getInt("courseId"));
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Course deleted"));
                 }
-            });
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
         }
     }
     
-    static class AddTimetableHandler implements HttpHandler {
+    /**
+     * {@code GET /api/timetable/free-slots?room=&instructor=} lists the gaps of at
+     * least {@code minutes} (default 60) between {@code from} and {@code to}
+     * (default 08:00-18:00) when the room and instructor are both free, for one
+     * {@code day} or every day of the week.
+     */
+    static class FreeSlotsHandler implements HttpHandler {
         public void handle(HttpExchange ex) throws IOException {
-            threadPool.submit(() -> {
+            try {
+                setCORS(ex);
+                Map<String, String> params = queryParams(ex);
+                String room = params.get("room");
+                String instructor = params.get("instructor");
+                if (ScheduleIndex.key(room) == null && ScheduleIndex.key(instructor) == null) {
+                    sendJSON(ex, 400, new JSONObject().put("error", "room or instructor is required"));
+                    return;
+                }
+                int from = TimetableSlot.parseTime(params.getOrDefault("from", "08:00"));
+                int to = TimetableSlot.parseTime(params.getOrDefault("to", "18:00"));
+                int minutes = Math.max(1, Integer.parseInt(params.getOrDefault("minutes", "60")));
+                String day = params.get("day");
+                int firstDay = day == null ? 0 : TimetableSlot.parseDay(day);
+                int lastDay = day == null ? TimetableSlot.DAYS.length - 1 : firstDay;
+                
+                JSONArray slots = new JSONArray();
+                for (int d = firstDay; d <= lastDay; d++) {
+                    for (int[] gap : schedule.free(d, from, to, minutes, room, instructor)) {
+                        slots.put(new JSONObject()
+                            .put("day", TimetableSlot.dayName(d))
+                            .put("startTime", TimetableSlot.formatTime(gap[0]))
+                            .put("endTime", TimetableSlot.formatTime(gap[1]))
+                            .put("minutes", gap[1] - gap[0]));
+                    }
+                }
+                sendJSON(ex, new JSONObject().put("freeSlots", slots));
+            } catch (Exception e) {
                 try {
-                    setCORS(ex);
-                    if ("POST".equals(ex.getRequestMethod())) {
-                        String body = new String(ex.getRequestBody().readAllBytes());
-                        JSONObject json = new JSONObject(body);
-                        
-                        PreparedStatement stmt = dbConnection.prepareStatement(
-                            "INSERT INTO timetable (course_id, day, start_time, end_time, room, instructor) VALUES (?, ?, ?, ?, ?, ?)");
-                        stmt.setInt(1, json.getInt("courseId"));
-                        stmt.setString(2, json.getString("day"));
-                        stmt.setString(3, json.getString("startTime"));
-                        stmt.setString(4, json.getString("endTime"));
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    static class AddTimetableHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    if (authorizeAdmin(ex) == null) {
+                        return;
+                    }
+                    String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    JSONObject json = new JSONObject(body);
+                    
+                    int courseId = json.getInt("courseId");
+                    int day = TimetableSlot.parseDay(json.getString("day"));
+                    int start = TimetableSlot.parseTime(json.getString("startTime"));
+                    int end = TimetableSlot.parseTime(json.getString("endTime"));
+                    if (end <= start) {
+                        sendJSON(ex, new JSONObject().put("success", false).put("message", "End time must be after start time"));
+                        return;
+                    }
+                    if (!courseExists(courseId)) {
+                        sendJSON(ex, 404, new JSONObject().put("success", false).put("message", "Course not found"));
+                        return;
+                    }
+                    
+                    ScheduleIndex.Booking booking;
+                    try {
+                        booking = schedule.reserve(courseId, day, start, end, json.getString("room"), json.getString("instructor"));
+                    } catch (ScheduleIndex.Conflict c) {
+                        sendJSON(ex, 409, new JSONObject().put("success", false).put("message", c.getMessage()).put("conflicts", c.toJSON()));
+                        return;
+                    }
+                    
+                    boolean inserted = false;
+                    try (ConnectionPool.Lease lease = db.write()) {
+                        PreparedStatement stmt = lease.prepare(Sql.ADD_TIMETABLE);
+                        stmt.setInt(1, courseId);
+                        stmt.setString(2, TimetableSlot.dayName(day));
+                        stmt.setString(3, TimetableSlot.formatTime(start));
+                        stmt.setString(4, TimetableSlot.formatTime(end));
                         stmt.setString(5, json.getString("room"));
                         stmt.setString(6, json.getString("instructor"));
-                        stmt.executeUpdate();
-                        
-                        sendJSON(ex, new JSONObject().put("success", true).put("message", "Timetable entry added"));
+                        stmt.setInt(7, courseId);
+                        // Guarded by the course still existing, in case it was deleted since the check above
+                        inserted = stmt.executeUpdate() > 0;
+                    } finally {
+                        if (!inserted) {
+                            schedule.release(booking);
+                        }
+                    }
+                    if (!inserted) {
+                        sendJSON(ex, 404, new JSONObject().put("success", false).put("message", "Course not found"));
+                        return;
+                    }
+                    timetables.courseChanged(courseId);
+                    events.timetableChanged(courseId);
+                    
+                    sendJSON(ex, new JSONObject().put("success", true).put("message", "Timetable entry added"));
+                }
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+        
+        private static boolean courseExists(int courseId) throws SQLException {
+            try (ConnectionPool.Lease lease = db.read()) {
+                PreparedStatement stmt = lease.prepare(Sql.COURSE_EXISTS);
+                stmt.setInt(1, courseId);
+                try (ResultSet rs = lease.query(stmt)) {
+                    return rs.next();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Bulk load: {@code POST /api/import/<courses|timetable|enrollments>} with a
+     * CSV (header row first) or NDJSON body, picked by {@code ?format=} or the
+     * Content-Type. Rows are parsed as they arrive and inserted with
+     * {@code executeBatch} in one transaction per {@code elearning.bulk.batchSize}
+     * rows, taking the write connection only for the flush. A row that fails
+     * validation is reported and skipped; if a flush hits a constraint, that
+     * batch is rolled back and replayed row by row to find the offending rows.
+     * Caches are told about each batch as soon as it commits, so readers never
+     * wait for the rest of the upload, or miss rows when it breaks off.
+     */
+    static class ImportHandler implements HttpHandler {
+        private static final int BATCH_SIZE = Integer.getInteger("elearning.bulk.batchSize", 5000);
+        private static final int MAX_REPORTED_ERRORS = 1000;
+        
+        private static final class Pending {
+            final long line;
+            final Map<String, String> row;
+            /** Committed or rejected; either way {@link BulkTable#rejected} must not run for it again. */
+            boolean settled;
+            
+            Pending(long line, Map<String, String> row) {
+                this.line = line;
+                this.row = row;
+            }
+        }
+        
+        static final class Result {
+            long rows;
+            long inserted;
+            long failed;
+            final TreeMap<Long, String> errors = new TreeMap<>();
+            
+            void error(long line, String message) {
+                failed++;
+                // Replayed batches report late, so keep the earliest lines rather than the first reported
+                errors.put(line, message);
+                if (errors.size() > MAX_REPORTED_ERRORS) {
+                    errors.pollLastEntry();
+                }
+            }
+            
+            JSONArray errorsJSON() {
+                JSONArray array = new JSONArray();
+                for (Map.Entry<Long, String> e : errors.entrySet()) {
+                    array.put(new JSONObject().put("line", e.getKey()).put("message", e.getValue()));
+                }
+                return array;
+            }
+        }
+        
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                if ("POST".equals(ex.getRequestMethod())) {
+                    if (authorizeAdmin(ex) == null) {
+                        return;
+                    }
+                    BulkTable table = BulkTable.forPath(ex.getRequestURI().getPath(), "/api/import/");
+                    if (table == null) {
+                        sendJSON(ex, 404, new JSONObject().put("success", false).put("message", "Unknown import table"));
+                        return;
+                    }
+                    
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8), 1 << 16);
+                    Result result = load(db, table, reader, BulkTable.isCsv(ex));
+                    sendJSON(ex, new JSONObject()
+                        .put("success", result.failed == 0)
+                        .put("table", table.name)
+                        .put("rows", result.rows)
+                        .put("inserted", result.inserted)
+                        .put("failed", result.failed)
+                        .put("errors", result.errorsJSON()));
+                }
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+        
+        /** Reads every row from {@code reader} into {@code table}, in batches on {@code pool}'s write connection. */
+        static Result load(ConnectionPool pool, BulkTable table, BufferedReader reader, boolean csv) throws IOException, SQLException {
+            Result result = new Result();
+            List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                if (csv) {
+                    List<String> header = Csv.read(reader);
+                    long line = 1;
+                    List<String> record;
+                    while (header != null && (record = Csv.read(reader)) != null) {
+                        line++;
+                        if (record.size() == 1 && record.get(0).isEmpty()) {
+                            continue;
+                        }
+                        Map<String, String> row = new HashMap<>();
+                        for (int i = 0; i < header.size() && i < record.size(); i++) {
+                            row.put(header.get(i).trim(), record.get(i));
+                        }
+                        add(pool, table, batch, new Pending(line, row), result);
+                    }
+                } else {
+                    long line = 0;
+                    String text;
+                    while ((text = reader.readLine()) != null) {
+                        line++;
+                        if (text.isBlank()) {
+                            continue;
+                        }
+                        Map<String, String> row = new HashMap<>();
+                        try {
+                            JSONObject object = new JSONObject(text);
+                            for (String key : object.keySet()) {
+                                if (!object.isNull(key)) {
+                                    row.put(key, String.valueOf(object.get(key)));
+                                }
+                            }
+                        } catch (JSONException e) {
+                            result.rows++;
+                            result.error(line, e.getMessage());
+                            continue;
+                        }
+                        add(pool, table, batch, new Pending(line, row), result);
+                    }
+                }
+                flush(pool, table, batch, result);
+            } finally {
+                // Rows validated but never committed, e.g. when the upload breaks off or a flush fails
+                for (Pending pending : batch) {
+                    reject(table, pending);
+                }
+            }
+            return result;
+        }
+        
+        private static void add(ConnectionPool pool, BulkTable table, List<Pending> batch, Pending pending, Result result) throws SQLException {
+            result.rows++;
+            try {
+                table.validate(pending.row);
+            } catch (IllegalArgumentException e) {
+                result.error(pending.line, e.getMessage());
+                return;
+            }
+            batch.add(pending);
+            if (batch.size() >= BATCH_SIZE) {
+                flush(pool, table, batch, result);
+            }
+        }
+        
+        private static void reject(BulkTable table, Pending pending) {
+            if (!pending.settled) {
+                pending.settled = true;
+                table.rejected(pending.row);
+            }
+        }
+        
+        private static void flush(ConnectionPool pool, BulkTable table, List<Pending> batch, Result result) throws SQLException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            int committed = 0;
+            try (ConnectionPool.Lease lease = pool.write()) {
+                Connection conn = lease.connection();
+                conn.setAutoCommit(false);
+                PreparedStatement stmt = lease.prepare(table.insert);
+                try {
+                    for (Pending pending : batch) {
+                        table.bind(stmt, pending.row);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    conn.commit();
+                    committed = batch.size();
+                } catch (SQLException e) {
+                    stmt.clearBatch();
+                    conn.rollback();
+                    for (Pending pending : batch) {
+                        try {
+                            stmt.clearParameters();
+                            table.bind(stmt, pending.row);
+                            stmt.executeUpdate();
+                            committed++;
+                        } catch (SQLException rowError) {
+                            reject(table, pending);
+                            result.error(pending.line, rowError.getMessage());
+                        }
+                    }
+                    conn.commit();
+                }
+            }
+            for (Pending pending : batch) {
+                pending.settled = true;
+            }
+            batch.clear();
+            result.inserted += committed;
+            if (committed > 0) {
+                table.changed();
+            }
+        }
+    }
+    
+    /**
+     * Bulk export: {@code GET /api/export/<courses|timetable|enrollments>} streams
+     * every row as CSV or NDJSON in the column layout the import accepts. Rows
+     * are read in id order a page at a time and the read lease is released
+     * before each page is written, so a slow download holds no pooled
+     * connection; rows committed mid-export show up if their id is still ahead.
+     */
+    static class ExportHandler implements HttpHandler {
+        private static final int PAGE_SIZE = Integer.getInteger("elearning.bulk.exportPageSize", 1000);
+        
+        public void handle(HttpExchange ex) throws IOException {
+            boolean started = false;
+            try {
+                setCORS(ex);
+                if (authorizeAdmin(ex) == null) {
+                    return;
+                }
+                BulkTable table = BulkTable.forPath(ex.getRequestURI().getPath(), "/api/export/");
+                if (table == null) {
+                    sendJSON(ex, 404, new JSONObject().put("success", false).put("message", "Unknown export table"));
+                    return;
+                }
+                boolean csv = BulkTable.isCsv(ex);
+                
+                String[] columns = table.columns;
+                List<Object[]> page = nextPage(table, 0);
+                ex.getResponseHeaders().set("Content-Type", csv ? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+                ex.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + table.name + (csv ? ".csv" : ".ndjson") + "\"");
+                ex.sendResponseHeaders(200, 0);
+                started = true;
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+                    if (csv) {
+                        Csv.write(out, Arrays.asList(columns));
+                    }
+                    List<String> values = new ArrayList<>(columns.length);
+                    while (!page.isEmpty()) {
+                        for (Object[] row : page) {
+                            if (csv) {
+                                values.clear();
+                                for (int i = 0; i < columns.length; i++) {
+                                    values.add(row[i] == null ? null : row[i].toString());
+                                }
+                                Csv.write(out, values);
+                            } else {
+                                JSONObject object = new JSONObject();
+                                for (int i = 0; i < columns.length; i++) {
+                                    object.put(columns[i], row[i] == null ? JSONObject.NULL : row[i]);
+                                }
+                                out.write(object.toString());
+                                out.write('\n');
+                            }
+                        }
+                        if (page.size() < PAGE_SIZE) {
+                            break;
+                        }
+                        page = nextPage(table, (Integer) page.get(page.size() - 1)[columns.length]);
+                    }
+                }
+            } catch (Exception e) {
+                if (started) {
+                    // The status line is already out; cutting the chunked stream short tells the client it failed
+                    ex.close();
+                    return;
+                }
+                try {
+                    sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+        
+        /** Up to {@link #PAGE_SIZE} rows with an id above {@code afterId}, each ending with its id. */
+        private static List<Object[]> nextPage(BulkTable table, int afterId) throws SQLException {
+            int width = table.columns.length;
+            List<Object[]> page = new ArrayList<>(PAGE_SIZE);
+            try (ConnectionPool.Lease lease = db.read()) {
+                PreparedStatement stmt = lease.prepare(table.export);
+                stmt.setInt(1, afterId);
+                stmt.setInt(2, PAGE_SIZE);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        Object[] row = new Object[width + 1];
+                        for (int i = 0; i < width; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+                        row[width] = rs.getInt("id");
+                        page.add(row);
+                    }
+                }
+            }
+            return page;
+        }
+    }
+    
+    /**
+     * Server-Sent Events for the signed-in user: {@code GET /api/events}. Pushes
+     * the user's own attendance marks and timetable changes or deletions for the
+     * courses they are enrolled in. EventSource cannot set headers, so the token
+     * may also come as {@code ?token=}.
+     */
+    static class EventsHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                String token = bearerToken(ex);
+                Sessions.Session session = authenticate(ex, token != null ? token : queryParams(ex).get("token"));
+                if (session == null) {
+                    return;
+                }
+                if (!events.reserve()) {
+                    ex.getResponseHeaders().set("Retry-After", "30");
+                    sendJSON(ex, 503, new JSONObject().put("success", false).put("message", "Too many event subscribers"));
+                    return;
+                }
+                try {
+                    int[] courseIds = timetables.get(session.userId).courseIds;
+                    ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+                    ex.getResponseHeaders().set("Cache-Control", "no-cache");
+                    ex.sendResponseHeaders(200, 0);
+                    events.subscribe(session.userId, ex, courseIds);
+                } catch (Exception e) {
+                    events.release();
+                    throw e;
+                }
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    static class StatsHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                setCORS(ex);
+                sendJSON(ex, new JSONObject()
+                    .put("executor", executor.stats())
+                    .put("pool", db.stats())
+                    .put("attendanceWriter", attendanceWriter.stats())
+                    .put("courseCatalog", catalog.stats())
+                    .put("courseIndex", courseIndex.stats())
+                    .put("schedule", schedule.stats())
+                    .put("timetableCache", timetables.stats())
+                    .put("quizCache", quizzes.stats())
+                    .put("sessions", sessions.stats())
+                    .put("events", events.stats())
+                    .put("attendanceStats", attendanceStats.stats())
+                    .put("answerKeys", answerKeys.stats()));
+            } catch (Exception e) {
+                try {
+                    sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    static class MetricsHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws IOException {
+            Map<String, JSONObject> gauges = new LinkedHashMap<>();
+            gauges.put("executor", executor.stats());
+            gauges.put("pool", db.stats());
+            gauges.put("attendance_writer", attendanceWriter.stats());
+            gauges.put("course_catalog", catalog.stats());
+            gauges.put("course_index", courseIndex.stats());
+            gauges.put("schedule", schedule.stats());
+            gauges.put("timetable_cache", timetables.stats());
+            gauges.put("quiz_cache", quizzes.stats());
+            gauges.put("sessions", sessions.stats());
+            gauges.put("events", events.stats());
+            gauges.put("attendance_stats", attendanceStats.stats());
+            gauges.put("answer_keys", answerKeys.stats());
+            byte[] body = metrics.render(gauges).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+    
+    /**
+     * Streaming JSON encoder for HTTP responses. Output is UTF-8 encoded into a
+     * pooled buffer; a response that fits in the buffer goes out with an exact
+     * Content-Length, a larger one switches to chunked transfer on the first
+     * flush. Allocation per response is bounded by the buffer, not the row count.
+     */
+    static class JsonWriter {
+        private static final int BUFFER_SIZE = 16 * 1024;
+        private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(256);
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        
+        private final HttpExchange ex;
+        private final int status;
+        private byte[] buf;
+        private int pos;
+        private OutputStream out;
+        private boolean[] hasElements = new boolean[16];
+        private int depth;
+        private boolean afterName;
+        
+        JsonWriter(HttpExchange ex, int status) {
+            this.ex = ex;
+            this.status = status;
+            byte[] pooled = BUFFERS.poll();
+            this.buf = pooled != null ? pooled : new byte[BUFFER_SIZE];
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        }
+        
+        JsonWriter beginObject() throws IOException {
+            return open('{');
+        }
+        
+        JsonWriter endObject() throws IOException {
+            return close('}');
+        }
+        
+        JsonWriter beginArray() throws IOException {
+            return open('[');
+        }
+        
+        JsonWriter endArray() throws IOException {
+            return close(']');
+        }
+        
+        JsonWriter name(String name) throws IOException {
+            separator();
+            string(name);
+            ensure(1);
+            buf[pos++] = ':';
+            afterName = true;
+            return this;
+        }
+        
+        JsonWriter value(String value) throws IOException {
+            separator();
+            if (value == null) {
+                ascii("null");
+            } else {
+                string(value);
+            }
+            return this;
+        }
+        
+        JsonWriter value(long value) throws IOException {
+            separator();
+            if (value == Long.MIN_VALUE) {
+                ascii(Long.toString(value));
+                return this;
+            }
+            ensure(20);
+            if (value < 0) {
+                buf[pos++] = '-';
+                value = -value;
+            }
+            int start = pos;
+            do {
+                buf[pos++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = pos - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+            return this;
+        }
+        
+        JsonWriter value(boolean value) throws IOException {
+            separator();
+            ascii(value ? "true" : "false");
+            return this;
+        }
+        
+        JsonWriter field(String name, String value) throws IOException {
+            return name(name).value(value);
+        }
+        
+        JsonWriter field(String name, long value) throws IOException {
+            return name(name).value(value);
+        }
+        
+        JsonWriter field(String name, boolean value) throws IOException {
+            return name(name).value(value);
+        }
+        
+        boolean committed() {
+            return out != null;
+        }
+        
+        /** Sends whatever is buffered and completes the exchange. */
+        void finish() throws IOException {
+            try {
+                if (out == null) {
+                    ex.sendResponseHeaders(status, pos);
+                    ex.getResponseBody().write(buf, 0, pos);
+                } else {
+                    out.write(buf, 0, pos);
+                }
+            } finally {
+                release();
+                ex.close();
+            }
+        }
+        
+        /** Drops the buffer; returns true if part of the response has already been sent. */
+        boolean abandon() {
+            release();
+            return out != null;
+        }
+        
+        private void release() {
+            if (buf != null) {
+                BUFFERS.offer(buf);
+                buf = null;
+            }
+        }
+        
+        private JsonWriter open(char c) throws IOException {
+            separator();
+            ensure(1);
+            buf[pos++] = (byte) c;
+            if (++depth == hasElements.length) {
+                hasElements = Arrays.copyOf(hasElements, depth * 2);
+            }
+            hasElements[depth] = false;
+            return this;
+        }
+        
+        private JsonWriter close(char c) throws IOException {
+            ensure(1);
+            buf[pos++] = (byte) c;
+            depth--;
+            return this;
+        }
+        
+        private void separator() throws IOException {
+            if (afterName) {
+                afterName = false;
+            } else if (hasElements[depth]) {
+                ensure(1);
+                buf[pos++] = ',';
+            } else {
+                hasElements[depth] = true;
+            }
+        }
+        
+        private void ascii(String s) throws IOException {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf[pos++] = (byte) s.charAt(i);
+            }
+        }
+        
+        private void string(String s) throws IOException {
+            ensure(1);
+            buf[pos++] = '"';
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                ensure(6);
+                if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                } else if (c == '"' || c == '\\') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = (byte) c;
+                } else if (c == '\n') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = 'n';
+                } else if (c == '\r') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = 'r';
+                } else if (c == '\t') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = 't';
+                } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    escape(c);
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xc0 | c >> 6);
+                    buf[pos++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xf0 | cp >> 18);
+                    buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    escape(c);
+                } else {
+                    buf[pos++] = (byte) (0xe0 | c >> 12);
+                    buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            ensure(1);
+            buf[pos++] = '"';
+        }
+        
+        private void escape(char c) {
+            buf[pos++] = '\\';
+            buf[pos++] = 'u';
+            buf[pos++] = HEX[c >> 12 & 0xf];
+            buf[pos++] = HEX[c >> 8 & 0xf];
+            buf[pos++] = HEX[c >> 4 & 0xf];
+            buf[pos++] = HEX[c & 0xf];
+        }
+        
+        private void ensure(int n) throws IOException {
+            if (pos + n > buf.length) {
+                if (out == null) {
+                    ex.sendResponseHeaders(status, 0);
+                    out = ex.getResponseBody();
+                }
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+    }
+    
+    /**
+     * Front-end assets read into memory once at startup, each with a precomputed
+     * gzip variant, strong ETags and Last-Modified. A dedicated web root is
+     * served whole, minus dot directories and {@code target/} build output; the
+     * working directory, which also holds the sources and the database, only
+     * serves the files named for it. Either way only known web extensions are
+     * picked up.
+     */
+    static class StaticFiles {
+        private static final long MAX_FILE_SIZE = 16L * 1024 * 1024;
+        private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("map", "application/json"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"));
+        
+        static final class Asset {
+            final String contentType;
+            final ByteBuffer body;
+            final ByteBuffer gzipped;
+            final String etag;
+            final String gzipEtag;
+            final String lastModified;
+            final String cacheControl;
+            
+            Asset(String contentType, byte[] bytes, FileTime modified) throws IOException {
+                this.contentType = contentType;
+                this.body = ByteBuffer.wrap(bytes);
+                this.etag = etagOf(bytes);
+                this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    modified.toInstant().truncatedTo(ChronoUnit.SECONDS).atZone(ZoneOffset.UTC));
+                // HTML is revalidated on every load so a redeploy shows up; everything else may be reused for an hour
+                this.cacheControl = contentType.startsWith("text/html") ? "no-cache" : "public, max-age=3600";
+                byte[] compressed = compressible(contentType) ? gzip(bytes) : null;
+                if (compressed != null && compressed.length < bytes.length * 9L / 10) {
+                    this.gzipped = ByteBuffer.wrap(compressed);
+                    this.gzipEtag = etagOf(compressed);
+                } else {
+                    this.gzipped = null;
+                    this.gzipEtag = null;
+                }
+            }
+            
+            private static boolean compressible(String contentType) {
+                return contentType.startsWith("text/") || contentType.startsWith("application/json") || contentType.equals("image/svg+xml");
+            }
+            
+            private static byte[] gzip(byte[] bytes) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+                try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                    gz.write(bytes);
+                }
+                return out.toByteArray();
+            }
+        }
+        
+        private final Map<String, Asset> assets;
+        
+        private StaticFiles(Map<String, Asset> assets) {
+            this.assets = assets;
+        }
+        
+        /** Every web file under {@code root}, skipping dot directories and build output. */
+        static StaticFiles load(Path root) throws IOException {
+            Map<String, Asset> assets = new HashMap<>();
+            Path base = root.toAbsolutePath().normalize();
+            Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.equals(base)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String name = dir.getFileName().toString();
+                    return name.startsWith(".") || name.equals("target") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+                
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    add(assets, base, file, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            System.out.println("Loaded " + assets.size() + " static files from " + base);
+            return new StaticFiles(assets);
+        }
+        
+        /** Only the named files directly under {@code root}; missing ones are skipped. */
+        static StaticFiles load(Path root, List<String> names) throws IOException {
+            Map<String, Asset> assets = new HashMap<>();
+            Path base = root.toAbsolutePath().normalize();
+            for (String name : names) {
+                Path file = base.resolve(name).normalize();
+                if (!file.getParent().equals(base) || !Files.exists(file)) {
+                    continue;
+                }
+                add(assets, base, file, Files.readAttributes(file, BasicFileAttributes.class));
+            }
+            System.out.println("Loaded " + assets.size() + " static files " + assets.keySet() + " from " + base);
+            return new StaticFiles(assets);
+        }
+        
+        private static void add(Map<String, Asset> assets, Path base, Path file, BasicFileAttributes attrs) throws IOException {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+            if (type != null && attrs.isRegularFile() && attrs.size() <= MAX_FILE_SIZE) {
+                String path = "/" + base.relativize(file).toString().replace(File.separatorChar, '/');
+                assets.put(path, new Asset(type, Files.readAllBytes(file), attrs.lastModifiedTime()));
+            }
+        }
+        
+        Asset get(String path) {
+            return assets.get(path);
+        }
+    }
+    
+    /**
+     * HttpServer executor. Requests run on a virtual thread each when the JVM has
+     * them, otherwise on a fixed pool of platform threads; handlers do their
+     * blocking JDBC work inline. {@link #execute} caps requests admitted but not
+     * yet finished, queued ones included; past the limit the exchange goes to a
+     * single overflow thread where the admission filter answers 503 without
+     * running the handler, so neither queue grows with the backlog. When the
+     * overflow queue is full too, {@link #execute} throws and HttpServer closes
+     * the connection; the dispatcher thread never reads a request itself.
+     */
+    static class RequestExecutor implements Executor {
+        final String mode;
+        private final ExecutorService delegate;
+        private final int maxInFlight;
+        private final Semaphore inFlight;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxQueued = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final ExecutorService overflow;
+        private static final ThreadLocal<Boolean> SHED = new ThreadLocal<>();
+        
+        RequestExecutor(String mode, int threads, int maxInFlight) {
+            ExecutorService virtual = null;
+            if ("virtual".equalsIgnoreCase(mode)) {
+                virtual = virtualThreadExecutor();
+                if (virtual == null) {
+                    System.out.println("Virtual threads are not available on this JVM, using " + threads + " platform threads");
+                }
+            }
+            this.delegate = virtual != null ? virtual : Executors.newFixedThreadPool(threads);
+            this.mode = virtual != null ? "virtual" : "platform";
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new Semaphore(maxInFlight);
+            // Reading a shed request still blocks on the client, so a full overflow queue aborts rather than run it on the dispatcher
+            this.overflow = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxInFlight), r -> {
+                Thread t = new Thread(r, "request-overflow");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        
+        public void execute(Runnable task) {
+            if (!inFlight.tryAcquire()) {
+                rejected.increment();
+                try {
+                    overflow.execute(() -> {
+                        SHED.set(Boolean.TRUE);
+                        try {
+                            task.run();
+                        } finally {
+                            SHED.remove();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // HttpServer's dispatcher closes the connection when execute throws
+                    dropped.increment();
+                    throw e;
+                }
+                return;
+            }
+            maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                    inFlight.release();
+                }
+            });
+        }
+        
+        /** Answers 503 for exchanges {@link #execute} turned away, before any handler work. */
+        Filter admission() {
+            return new Filter() {
+                public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+                    if (SHED.get() != null) {
+                        setCORS(ex);
+                        ex.getResponseHeaders().set("Retry-After", "1");
+                        ex.sendResponseHeaders(503, -1);
+                        ex.close();
+                        return;
+                    }
+                    chain.doFilter(ex);
+                }
+                
+                public String description() {
+                    return "Request admission limit";
+                }
+            };
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("mode", mode)
+                .put("queued", queued.get())
+                .put("maxQueued", maxQueued.get())
+                .put("active", active.get())
+                .put("inFlight", maxInFlight - inFlight.availablePermits())
+                .put("maxInFlight", maxInFlight)
+                .put("completed", completed.sum())
+                .put("rejected", rejected.sum())
+                .put("dropped", dropped.sum());
+        }
+    }
+    
+    /**
+     * Password hashing and stateless bearer tokens. Passwords are stored as
+     * salted PBKDF2-HMAC-SHA256; rows still holding a plaintext password are
+     * re-hashed on the user's next successful login. A token is
+     * {@code base64url(userId:role:expiresAt).base64url(hmac)} signed with the
+     * server key, so checking one needs no database; verified tokens are kept in
+     * a bounded LRU so repeat requests skip the HMAC as well. Successful logins
+     * are remembered as a keyed digest of the password for a short while, which
+     * keeps a login storm from paying for PBKDF2 on every retry and reload.
+     */
+    static class Sessions {
+        private static final String HASH_PREFIX = "pbkdf2-sha256$";
+        private static final Base64.Encoder B64URL = Base64.getUrlEncoder().withoutPadding();
+        private static final Base64.Decoder B64URL_DECODER = Base64.getUrlDecoder();
+        
+        static final class Session {
+            final int userId;
+            final String role;
+            final long expiresAt;
+            
+            Session(int userId, String role, long expiresAt) {
+                this.userId = userId;
+                this.role = role;
+                this.expiresAt = expiresAt;
+            }
+            
+            boolean isAdmin() {
+                return "admin".equals(role);
+            }
+            
+            boolean mayActFor(int userId) {
+                return this.userId == userId || isAdmin();
+            }
+        }
+        
+        /** A user whose password was recently verified, and a keyed digest of that password. */
+        static final class Credential {
+            final int userId;
+            final String username;
+            final String role;
+            final byte[] proof;
+            final long verifiedAt;
+            
+            Credential(int userId, String username, String role, byte[] proof, long verifiedAt) {
+                this.userId = userId;
+                this.username = username;
+                this.role = role;
+                this.proof = proof;
+                this.verifiedAt = verifiedAt;
+            }
+        }
+        
+        private final byte[] key;
+        private final int iterations;
+        private final long tokenTtlSeconds;
+        private final long credentialTtlMillis;
+        private final int maxEntries;
+        private final SecureRandom random = new SecureRandom();
+        private final ThreadLocal<Mac> macs;
+        private final Map<String, Session> sessions;
+        private final Map<String, Credential> credentials;
+        private final LongAdder sessionHits = new LongAdder();
+        private final LongAdder sessionMisses = new LongAdder();
+        private final LongAdder rejectedTokens = new LongAdder();
+        private final LongAdder credentialHits = new LongAdder();
+        private final LongAdder passwordHashes = new LongAdder();
+        private final LongAdder upgraded = new LongAdder();
+        private final String dummyHash;
+        
+        Sessions(String secret, int iterations, long tokenTtlSeconds, long credentialTtlSeconds, int maxEntries) {
+            if (secret != null) {
+                this.key = secret.getBytes(StandardCharsets.UTF_8);
+            } else {
+                // Tokens then only survive until the next restart
+                this.key = new byte[32];
+                random.nextBytes(key);
+            }
+            this.iterations = iterations;
+            this.tokenTtlSeconds = tokenTtlSeconds;
+            this.credentialTtlMillis = credentialTtlSeconds * 1000;
+            this.maxEntries = maxEntries;
+            this.macs = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            this.sessions = lru();
+            this.credentials = lru();
+            byte[] dummy = new byte[16];
+            random.nextBytes(dummy);
+            this.dummyHash = hash(B64URL.encodeToString(dummy));
+        }
+        
+        private <V> Map<String, V> lru() {
+            return new LinkedHashMap<>(1024, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+        
+        private byte[] hmac(String data) {
+            return macs.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        String hash(String password) {
+            byte[] salt = new byte[16];
+            random.nextBytes(salt);
+            return HASH_PREFIX + iterations + "$" + B64URL.encodeToString(salt) + "$" + B64URL.encodeToString(pbkdf2(password, salt, iterations));
+        }
+        
+        private byte[] pbkdf2(String password, byte[] salt, int iterations) {
+            passwordHashes.increment();
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+            try {
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+        
+        /**
+         * Checks a password against a stored hash, or against a legacy plaintext
+         * value. An unknown user (null) or a plaintext row still costs one
+         * PBKDF2 run, so the response time does not tell which usernames exist.
+         */
+        boolean matches(String password, String stored) {
+            if (stored == null || !isHashed(stored)) {
+                boolean equal = stored != null
+                    && MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+                verify(password, dummyHash);
+                return equal;
+            }
+            return verify(password, stored);
+        }
+        
+        private boolean verify(String password, String stored) {
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) {
+                return false;
+            }
+            byte[] expected = B64URL_DECODER.decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, B64URL_DECODER.decode(parts[2]), Integer.parseInt(parts[1])));
+        }
+        
+        static boolean isHashed(String stored) {
+            return stored.startsWith(HASH_PREFIX);
+        }
+        
+        /** Whether a stored password is plaintext or hashed with fewer iterations than now configured. */
+        boolean needsRehash(String stored) {
+            if (!isHashed(stored)) {
+                return true;
+            }
+            String[] parts = stored.split("\\$");
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        }
+        
+        void upgradedPassword() {
+            upgraded.increment();
+        }
+        
+        /** The user for a recently verified username and password, or null. */
+        Credential recall(String username, String password) {
+            Credential credential;
+            synchronized (this) {
+                credential = credentials.get(username);
+            }
+            if (credential == null || System.currentTimeMillis() - credential.verifiedAt > credentialTtlMillis) {
+                return null;
+            }
+            if (!MessageDigest.isEqual(credential.proof, hmac(username + '\0' + password))) {
+                return null;
+            }
+            credentialHits.increment();
+            return credential;
+        }
+        
+        Credential remember(int userId, String username, String role, String password) {
+            Credential credential = new Credential(userId, username, role, hmac(username + '\0' + password), System.currentTimeMillis());
+            synchronized (this) {
+                credentials.put(username, credential);
+            }
+            return credential;
+        }
+        
+        String issue(int userId, String role) {
+            long expiresAt = Instant.now().getEpochSecond() + tokenTtlSeconds;
+            String payload = B64URL.encodeToString((userId + ":" + role + ":" + expiresAt).getBytes(StandardCharsets.UTF_8));
+            String token = payload + "." + B64URL.encodeToString(hmac(payload));
+            Session session = new Session(userId, role, expiresAt);
+            synchronized (this) {
+                sessions.put(token, session);
+            }
+            return token;
+        }
+        
+        /** The session for a token, or null if it is malformed, forged or expired. */
+        Session verify(String token) {
+            Session session;
+            synchronized (this) {
+                session = sessions.get(token);
+            }
+            if (session == null) {
+                sessionMisses.increment();
+                session = parse(token);
+                if (session == null) {
+                    rejectedTokens.increment();
+                    return null;
+                }
+                synchronized (this) {
+                    sessions.put(token, session);
+                }
+            } else {
+                sessionHits.increment();
+            }
+            if (session.expiresAt < Instant.now().getEpochSecond()) {
+                synchronized (this) {
+                    sessions.remove(token);
+                }
+                rejectedTokens.increment();
+                return null;
+            }
+            return session;
+        }
+        
+        private Session parse(String token) {
+            int dot = token.indexOf('.');
+            if (dot <= 0) {
+                return null;
+            }
+            String payload = token.substring(0, dot);
+            try {
+                if (!MessageDigest.isEqual(hmac(payload), B64URL_DECODER.decode(token.substring(dot + 1)))) {
+                    return null;
+                }
+                String[] fields = new String(B64URL_DECODER.decode(payload), StandardCharsets.UTF_8).split(":");
+                return new Session(Integer.parseInt(fields[0]), fields[1], Long.parseLong(fields[2]));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+        
+        JSONObject stats() {
+            int cachedSessions;
+            int cachedCredentials;
+            synchronized (this) {
+                cachedSessions = sessions.size();
+                cachedCredentials = credentials.size();
+            }
+            return new JSONObject()
+                .put("sessions", cachedSessions)
+                .put("credentials", cachedCredentials)
+                .put("maxEntries", maxEntries)
+                .put("sessionHits", sessionHits.sum())
+                .put("sessionMisses", sessionMisses.sum())
+                .put("rejectedTokens", rejectedTokens.sum())
+                .put("credentialHits", credentialHits.sum())
+                .put("passwordHashes", passwordHashes.sum())
+                .put("upgradedPasswords", upgraded.sum());
+        }
+    }
+    
+    /**
+     * Per-context request instrumentation, exposed in Prometheus text format on
+     * /metrics. The filter times each exchange and splits it into time spent
+     * holding pooled connections (db) and everything else on the request thread:
+     * building and encoding JSON and writing it out (encode). Counters are
+     * LongAdders so the hot path never contends on a shared word.
+     */
+    static class Metrics {
+        private static final ThreadLocal<long[]> DB_NANOS = new ThreadLocal<>();
+        private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        
+        private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+        
+        /**
+         * Log-linear histogram of microsecond values: exact below 16, then 16
+         * linear sub-buckets per power of two, so any recorded value is within
+         * about 6% of its bucket bound.
+         */
+        static final class Histogram {
+            private static final int SUB_BITS = 4;
+            private static final int SUB_COUNT = 1 << SUB_BITS;
+            private static final int BUCKET_COUNT = (40 - SUB_BITS + 1) * SUB_COUNT;
+            
+            private final LongAdder[] counts = new LongAdder[BUCKET_COUNT];
+            private final LongAdder count = new LongAdder();
+            private final LongAdder sum = new LongAdder();
+            
+            Histogram() {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = new LongAdder();
+                }
+            }
+            
+            static int index(long micros) {
+                if (micros < SUB_COUNT) {
+                    return (int) Math.max(0, micros);
+                }
+                int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+                return Math.min(BUCKET_COUNT - 1, (shift + 1) * SUB_COUNT + (int) (micros >>> shift) - SUB_COUNT);
+            }
+            
+            /** Largest value that falls into bucket {@code i}. */
+            static long upperBound(int i) {
+                if (i < SUB_COUNT) {
+                    return i;
+                }
+                int shift = i / SUB_COUNT - 1;
+                return ((long) (i % SUB_COUNT + SUB_COUNT + 1) << shift) - 1;
+            }
+            
+            void record(long nanos) {
+                long micros = nanos / 1000;
+                counts[index(micros)].increment();
+                count.increment();
+                sum.add(micros);
+            }
+            
+            long[] snapshot() {
+                long[] values = new long[BUCKET_COUNT];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = counts[i].sum();
+                }
+                return values;
+            }
+            
+            static long percentile(long[] values, long total, double p) {
+                long rank = (long) Math.ceil(total * p);
+                long seen = 0;
+                for (int i = 0; i < values.length; i++) {
+                    seen += values[i];
+                    if (seen >= rank && seen > 0) {
+                        return upperBound(i);
+                    }
+                }
+                return 0;
+            }
+        }
+        
+        static final class Endpoint {
+            final Histogram total = new Histogram();
+            final Histogram db = new Histogram();
+            final Histogram encode = new Histogram();
+            final LongAdder inFlight = new LongAdder();
+            final LongAdder exceptions = new LongAdder();
+            final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        }
+        
+        /** Adds connection hold time to the request running on this thread, if any. */
+        static void dbTime(long nanos) {
+            long[] acc = DB_NANOS.get();
+            if (acc != null) {
+                acc[0] += nanos;
+            }
+        }
+        
+        Filter filter(String path) {
+            Endpoint endpoint = endpoints.computeIfAbsent(path, p -> new Endpoint());
+            return new Filter() {
+                public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+                    long[] acc = new long[1];
+                    DB_NANOS.set(acc);
+                    endpoint.inFlight.increment();
+                    long start = System.nanoTime();
+                    try {
+                        chain.doFilter(ex);
+                    } catch (IOException | RuntimeException e) {
+                        endpoint.exceptions.increment();
+                        throw e;
+                    } finally {
+                        long elapsed = System.nanoTime() - start;
+                        endpoint.inFlight.decrement();
+                        DB_NANOS.remove();
+                        long db = Math.min(acc[0], elapsed);
+                        endpoint.total.record(elapsed);
+                        endpoint.db.record(db);
+                        endpoint.encode.record(elapsed - db);
+                        endpoint.statuses.computeIfAbsent(ex.getResponseCode(), c -> new LongAdder()).increment();
+                    }
+                }
+                
+                public String description() {
+                    return "Request metrics";
+                }
+            };
+        }
+        
+        String render(Map<String, JSONObject> gauges) {
+            StringBuilder out = new StringBuilder(16384);
+            out.append("# HELP elearning_http_request_duration_seconds Time to handle a request, by phase: all, db (holding pooled connections) or encode (everything else).\n");
+            out.append("# TYPE elearning_http_request_duration_seconds histogram\n");
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                Endpoint endpoint = e.getValue();
+                histogram(out, e.getKey(), "all", endpoint.total);
+                histogram(out, e.getKey(), "db", endpoint.db);
+                histogram(out, e.getKey(), "encode", endpoint.encode);
+            }
+            out.append("# HELP elearning_http_request_duration_quantile_seconds Request time percentiles since startup.\n");
+            out.append("# TYPE elearning_http_request_duration_quantile_seconds gauge\n");
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                Histogram total = e.getValue().total;
+                long[] values = total.snapshot();
+                long count = Arrays.stream(values).sum();
+                for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                    out.append("elearning_http_request_duration_quantile_seconds{path=\"").append(e.getKey())
+                        .append("\",quantile=\"").append(q).append("\"} ")
+                        .append(count == 0 ? "NaN" : Double.toString(Histogram.percentile(values, count, q) / 1e6)).append('\n');
+                }
+            }
+            out.append("# HELP elearning_http_requests_in_flight Requests currently being handled.\n");
+            out.append("# TYPE elearning_http_requests_in_flight gauge\n");
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                out.append("elearning_http_requests_in_flight{path=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue().inFlight.sum()).append('\n');
+            }
+            out.append("# HELP elearning_http_responses_total Responses by status code; -1 means the handler sent none.\n");
+            out.append("# TYPE elearning_http_responses_total counter\n");
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(e.getValue().statuses).entrySet()) {
+                    out.append("elearning_http_responses_total{path=\"").append(e.getKey())
+                        .append("\",status=\"").append(status.getKey()).append("\"} ")
+                        .append(status.getValue().sum()).append('\n');
+                }
+            }
+            out.append("# HELP elearning_http_exceptions_total Exceptions that escaped a handler.\n");
+            out.append("# TYPE elearning_http_exceptions_total counter\n");
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                out.append("elearning_http_exceptions_total{path=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue().exceptions.sum()).append('\n');
+            }
+            // Component stats are flattened as-is: elearning_<component>_<key in snake case>
+            for (Map.Entry<String, JSONObject> component : gauges.entrySet()) {
+                JSONObject stats = component.getValue();
+                for (String key : new TreeSet<>(stats.keySet())) {
+                    Object value = stats.get(key);
+                    if (value instanceof Boolean) {
+                        value = (Boolean) value ? 1 : 0;
+                    }
+                    if (value instanceof Number) {
+                        String name = "elearning_" + component.getKey() + "_" + key.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+                        out.append("# TYPE ").append(name).append(" gauge\n");
+                        out.append(name).append(' ').append(value).append('\n');
+                    }
+                }
+            }
+            return out.toString();
+        }
+        
+        private static void histogram(StringBuilder out, String path, String phase, Histogram histogram) {
+            long[] values = histogram.snapshot();
+            String labels = "path=\"" + path + "\",phase=\"" + phase + "\"";
+            int i = 0;
+            long cumulative = 0;
+            for (double bucket : BUCKETS) {
+                long limit = (long) (bucket * 1e6);
+                while (i < values.length && Histogram.upperBound(i) <= limit) {
+                    cumulative += values[i++];
+                }
+                out.append("elearning_http_request_duration_seconds_bucket{").append(labels)
+                    .append(",le=\"").append(BigDecimal.valueOf(bucket).toPlainString()).append("\"} ").append(cumulative).append('\n');
+            }
+            while (i < values.length) {
+                cumulative += values[i++];
+            }
+            out.append("elearning_http_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append("elearning_http_request_duration_seconds_sum{").append(labels).append("} ").append(histogram.sum.sum() / 1e6).append('\n');
+            out.append("elearning_http_request_duration_seconds_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+    
+    /**
+     * Versioned schema changes, applied in order at startup. Each migration runs
+     * in one transaction together with its schema_version row, so a failure
+     * leaves the database at the last good version. Append new migrations; never
+     * edit one that has shipped.
+     */
+    static class Migrations {
+        static final class Migration {
+            final int version;
+            final String description;
+            final String[] statements;
+            
+            Migration(int version, String description, String... statements) {
+                this.version = version;
+                this.description = description;
+                this.statements = statements;
+            }
+        }
+        
+        static final List<Migration> ALL = List.of(
+            new Migration(1, "Initial schema",
+                "CREATE TABLE IF NOT EXISTS users (id INTEGER PRIMARY KEY, username TEXT UNIQUE, password TEXT, role TEXT, email TEXT)",
+                "CREATE TABLE IF NOT EXISTS courses (id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, description TEXT, instructor TEXT, duration TEXT, credits INTEGER, category TEXT)",
+                "CREATE TABLE IF NOT EXISTS enrollments (id INTEGER PRIMARY KEY, user_id INTEGER, course_id INTEGER, progress INTEGER DEFAULT 0, enrollment_date TEXT)",
+                "CREATE TABLE IF NOT EXISTS quizzes (id INTEGER PRIMARY KEY, course_id INTEGER, question TEXT, options TEXT, answer INTEGER)",
+                "CREATE TABLE IF NOT EXISTS attendance (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER, course_id INTEGER, date TEXT, status TEXT, marked_at TEXT)",
+                "CREATE TABLE IF NOT EXISTS timetable (id INTEGER PRIMARY KEY AUTOINCREMENT, course_id INTEGER, day TEXT, start_time TEXT, end_time TEXT, room TEXT, instructor TEXT)"),
+            new Migration(2, "Secondary indexes for handler queries",
+                "CREATE INDEX IF NOT EXISTS idx_attendance_user_date ON attendance (user_id, date DESC, id DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_attendance_course_date ON attendance (course_id, date DESC, id DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_enrollments_course ON enrollments (course_id)",
+                "CREATE INDEX IF NOT EXISTS idx_timetable_course ON timetable (course_id)",
+                "CREATE INDEX IF NOT EXISTS idx_quizzes_course ON quizzes (course_id)"),
+            new Migration(3, "One enrollment per user and course",
+                "DELETE FROM enrollments WHERE id NOT IN (SELECT MIN(id) FROM enrollments GROUP BY user_id, course_id)",
+                // Also serves lookups by user_id, so no separate index is needed for it
+                "CREATE UNIQUE INDEX IF NOT EXISTS ux_enrollments_user_course ON enrollments (user_id, course_id)"),
+            new Migration(4, "Quiz attempts",
+                "CREATE TABLE IF NOT EXISTS quiz_attempts (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER, course_id INTEGER, score INTEGER, total INTEGER, answers TEXT, submitted_at TEXT)",
+                "CREATE INDEX IF NOT EXISTS idx_quiz_attempts_user_course ON quiz_attempts (user_id, course_id, submitted_at)"),
+            new Migration(5, "Drop timetable rows of deleted courses",
+                "DELETE FROM timetable WHERE course_id NOT IN (SELECT id FROM courses)"));
+        
+        /** Applies every migration newer than the recorded version; returns how many ran. */
+        static int apply(Connection conn) throws SQLException {
+            int current;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER PRIMARY KEY, description TEXT, applied_at TEXT)");
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                    current = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            int applied = 0;
+            for (Migration migration : ALL) {
+                if (migration.version <= current) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement();
+                     PreparedStatement record = conn.prepareStatement("INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                    for (String sql : migration.statements) {
+                        stmt.execute(sql);
+                    }
+                    record.setInt(1, migration.version);
+                    record.setString(2, migration.description);
+                    record.setString(3, LocalDateTime.now().toString());
+                    record.executeUpdate();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.version + " (" + migration.description + ") failed: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                System.out.println("Applied schema migration " + migration.version + ": " + migration.description);
+                applied++;
+            }
+            return applied;
+        }
+    }
+    
+    /**
+     * Write-behind pipeline for attendance marks. Requests are queued whole on a
+     * bounded queue and a single writer thread group-commits them, closing a
+     * transaction after {@code batchSize} rows or {@code maxDelayMillis}, whichever
+     * comes first. A full queue is reported back to the caller instead of blocking.
+     */
+    static class AttendanceWriter {
+        static final class Mark {
+            final int userId;
+            final int courseId;
+            final String date;
+            final String status;
+            final String markedAt;
+            
+            Mark(int userId, int courseId, String date, String status, String markedAt) {
+                this.userId = userId;
+                this.courseId = courseId;
+                this.date = date;
+                this.status = status;
+                this.markedAt = markedAt;
+            }
+        }
+        
+        private static final class Request {
+            final List<Mark> marks;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            
+            Request(List<Mark> marks) {
+                this.marks = marks;
+            }
+        }
+        
+        final boolean ackOnEnqueue;
+        private final BlockingQueue<Request> queue;
+        private final int batchSize;
+        private final long maxDelayNanos;
+        private final Thread thread = new Thread(this::run, "attendance-writer");
+        private volatile boolean running = true;
+        private final List<Consumer<List<Mark>>> listeners = new CopyOnWriteArrayList<>();
+        
+        private final LongAdder rowsCommitted = new LongAdder();
+        private final LongAdder transactions = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        
+        AttendanceWriter(int capacity, int batchSize, long maxDelayMillis, boolean ackOnEnqueue) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.batchSize = Math.max(1, batchSize);
+            this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+            this.ackOnEnqueue = ackOnEnqueue;
+            thread.setDaemon(true);
+        }
+        
+        void start() {
+            thread.start();
+        }
+        
+        /** Adds a listener called on the writer thread with each committed request's marks. */
+        void onCommit(Consumer<List<Mark>> listener) {
+            listeners.add(listener);
+        }
+        
+        /** Queues the marks as one unit; returns null when the queue is full. */
+        CompletableFuture<Void> submit(List<Mark> marks) {
+            Request request = new Request(marks);
+            if (!running || !queue.offer(request)) {
+                rejected.increment();
+                return null;
+            }
+            return request.done;
+        }
+        
+        private void run() {
+            List<Request> group = new ArrayList<>();
+            while (running || !queue.isEmpty()) {
+                try {
+                    Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    group.add(first);
+                    int rows = first.marks.size();
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    while (rows < batchSize) {
+                        Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        group.add(next);
+                        rows += next.marks.size();
+                    }
+                    commit(group);
+                } catch (InterruptedException e) {
+                    running = false;
+                    if (!group.isEmpty()) {
+                        commit(group);
+                    }
+                } catch (RuntimeException e) {
+                    // Never let one group kill the thread; whoever is still waiting hears about it
+                    System.err.println("Attendance writer: " + e);
+                    for (Request request : group) {
+                        request.done.completeExceptionally(e);
+                    }
+                } finally {
+                    group.clear();
+                }
+            }
+        }
+        
+        private void commit(List<Request> group) {
+            try {
+                insert(group);
+            } catch (SQLException | RuntimeException e) {
+                if (group.size() == 1) {
+                    failed.increment();
+                    group.get(0).done.completeExceptionally(e);
+                    return;
+                }
+                // Retry one request per transaction so a bad row only fails its own request
+                for (Request request : group) {
+                    commit(Collections.singletonList(request));
+                }
+                return;
+            }
+            // Listeners first, so a client that has been acked reads its own marks back
+            for (Request request : group) {
+                for (Consumer<List<Mark>> listener : listeners) {
+                    try {
+                        listener.accept(request.marks);
+                    } catch (RuntimeException e) {
+                        System.err.println("Attendance commit listener: " + e);
+                    }
+                }
+                request.done.complete(null);
+            }
+        }
+        
+        private void insert(List<Request> group) throws SQLException {
+            try (ConnectionPool.Lease lease = db.write()) {
+                Connection conn = lease.connection();
+                conn.setAutoCommit(false);
+                PreparedStatement stmt = lease.prepare(Sql.MARK_ATTENDANCE);
+                int rows = 0;
+                for (Request request : group) {
+                    for (Mark mark : request.marks) {
+                        stmt.setInt(1, mark.userId);
+                        stmt.setInt(2, mark.courseId);
+                        stmt.setString(3, mark.date);
+                        stmt.setString(4, mark.status);
+                        stmt.setString(5, mark.markedAt);
+                        stmt.addBatch();
+                        rows++;
+                    }
+                }
+                stmt.executeBatch();
+                conn.commit();
+                conn.setAutoCommit(true);
+                rowsCommitted.add(rows);
+                transactions.increment();
+            }
+        }
+        
+        void shutdown() {
+            running = false;
+            try {
+                thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("queued", queue.size())
+                .put("capacity", queue.size() + queue.remainingCapacity())
+                .put("ackOnEnqueue", ackOnEnqueue)
+                .put("rowsCommitted", rowsCommitted.sum())
+                .put("transactions", transactions.sum())
+                .put("rejected", rejected.sum())
+                .put("failed", failed.sum());
+        }
+    }
+    
+    /**
+     * Server-Sent Events fan-out. Subscribing hands the open exchange to the hub
+     * and the handler returns, so an idle subscriber costs a socket and a small
+     * object rather than a thread. One hub thread owns all routing state:
+     * subscriptions, publishes and heartbeats arrive through its queue. It never
+     * touches a socket; events go onto each subscriber's bounded outbound queue
+     * and a sender thread drains that queue while it has data. The exchange
+     * stream blocks and a stuck write cannot be interrupted, so a subscriber
+     * that lets {@code maxPending} events pile up, or whose write has not
+     * returned within the write timeout, is dropped and only that sender waits
+     * it out. A full hub queue drops the event rather than blocking the
+     * publisher.
+     */
+    static class EventHub {
+        private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+        
+        private static final class Subscriber {
+            final int userId;
+            final HttpExchange exchange;
+            final OutputStream out;
+            /** Routing state, touched by the hub thread only. */
+            final Set<Integer> courseIds = new HashSet<>();
+            boolean removed;
+            /** Outbound state, guarded by the subscriber's monitor. */
+            final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+            boolean draining;
+            boolean closed;
+            /** When the write in progress started, or 0 between writes. */
+            volatile long writingSince;
+            
+            Subscriber(int userId, HttpExchange exchange, int[] courseIds) {
+                this.userId = userId;
+                this.exchange = exchange;
+                this.out = exchange.getResponseBody();
+                for (int courseId : courseIds) {
+                    this.courseIds.add(courseId);
+                }
+            }
+        }
+        
+        /** Work for the hub thread; runs with exclusive access to the routing maps. */
+        private interface Command {
+            void run(EventHub hub);
+        }
+        
+        private final int maxSubscribers;
+        private final long heartbeatNanos;
+        private final int maxPending;
+        private final long writeTimeoutNanos;
+        private final BlockingQueue<Command> queue;
+        private final Thread thread = new Thread(this::run, "event-hub");
+        private final ExecutorService senders;
+        private final AtomicInteger subscribers = new AtomicInteger();
+        private final Map<Integer, List<Subscriber>> byUser = new HashMap<>();
+        private final Map<Integer, Set<Subscriber>> byCourse = new HashMap<>();
+        
+        private final LongAdder published = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder disconnected = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        
+        EventHub(int maxSubscribers, int queueCapacity, long heartbeatSeconds, int maxPending, long writeTimeoutSeconds) {
+            this.maxSubscribers = maxSubscribers;
+            this.heartbeatNanos = TimeUnit.SECONDS.toNanos(heartbeatSeconds);
+            this.maxPending = Math.max(1, maxPending);
+            this.writeTimeoutNanos = TimeUnit.SECONDS.toNanos(writeTimeoutSeconds);
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            thread.setDaemon(true);
+            // Threads only live while a subscriber has data queued; one per stuck client at worst
+            ExecutorService virtual = virtualThreadExecutor();
+            this.senders = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "event-sender");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        
+        void start() {
+            thread.start();
+        }
+        
+        /** Reserves a subscriber slot; false when the hub is at capacity. */
+        boolean reserve() {
+            if (subscribers.incrementAndGet() > maxSubscribers) {
+                subscribers.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+        
+        void release() {
+            subscribers.decrementAndGet();
+        }
+        
+        /** Takes over an exchange whose event-stream headers are already sent. */
+        void subscribe(int userId, HttpExchange ex, int[] courseIds) {
+            Subscriber subscriber = new Subscriber(userId, ex, courseIds);
+            if (!queue.offer(hub -> hub.add(subscriber))) {
+                dropped.increment();
+                subscribers.decrementAndGet();
+                ex.close();
+            }
+        }
+        
+        void attendanceMarked(List<AttendanceWriter.Mark> marks) {
+            for (AttendanceWriter.Mark mark : marks) {
+                byte[] event = event("attendance", new JSONObject()
+                    .put("userId", mark.userId)
+                    .put("courseId", mark.courseId)
+                    .put("date", mark.date)
+                    .put("status", mark.status));
+                publish(hub -> hub.sendToUser(mark.userId, event));
+            }
+        }
+        
+        void timetableChanged(int courseId) {
+            byte[] event = event("timetable", new JSONObject().put("courseId", courseId));
+            publish(hub -> hub.sendToCourse(courseId, event));
+        }
+        
+        void courseDeleted(int courseId) {
+            byte[] event = event("course-deleted", new JSONObject().put("courseId", courseId));
+            publish(hub -> {
+                hub.sendToCourse(courseId, event);
+                Set<Subscriber> enrolled = hub.byCourse.remove(courseId);
+                if (enrolled != null) {
+                    for (Subscriber subscriber : enrolled) {
+                        subscriber.courseIds.remove(courseId);
+                    }
+                }
+            });
+        }
+        
+        void enrolled(int userId, int courseId) {
+            byte[] event = event("enrolled", new JSONObject().put("userId", userId).put("courseId", courseId));
+            publish(hub -> {
+                for (Subscriber subscriber : hub.byUser.getOrDefault(userId, List.of())) {
+                    if (subscriber.courseIds.add(courseId)) {
+                        hub.byCourse.computeIfAbsent(courseId, id -> new HashSet<>()).add(subscriber);
+                    }
+                }
+                hub.sendToUser(userId, event);
+            });
+        }
+        
+        private static byte[] event(String type, JSONObject data) {
+            return ("event: " + type + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+        
+        private void publish(Command command) {
+            published.increment();
+            if (!queue.offer(command)) {
+                dropped.increment();
+            }
+        }
+        
+        private void run() {
+            long nextHeartbeat = System.nanoTime() + heartbeatNanos;
+            while (true) {
+                try {
+                    Command command = queue.poll(Math.max(0, nextHeartbeat - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (command != null) {
+                        command.run(this);
+                    }
+                    if (System.nanoTime() >= nextHeartbeat) {
+                        // Keeps proxies from timing the stream out and finds clients that went away or stalled
+                        long now = System.nanoTime();
+                        for (List<Subscriber> list : new ArrayList<>(byUser.values())) {
+                            for (Subscriber subscriber : new ArrayList<>(list)) {
+                                long since = subscriber.writingSince;
+                                if (since != 0 && now - since > writeTimeoutNanos) {
+                                    slow.increment();
+                                    remove(subscriber);
+                                } else {
+                                    send(subscriber, HEARTBEAT);
+                                }
+                            }
+                        }
+                        nextHeartbeat = System.nanoTime() + heartbeatNanos;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    System.err.println("Event hub: " + e);
+                }
+            }
+        }
+        
+        private void add(Subscriber subscriber) {
+            byUser.computeIfAbsent(subscriber.userId, id -> new ArrayList<>()).add(subscriber);
+            for (int courseId : subscriber.courseIds) {
+                byCourse.computeIfAbsent(courseId, id -> new HashSet<>()).add(subscriber);
+            }
+            send(subscriber, "retry: 5000\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+        
+        private void sendToUser(int userId, byte[] event) {
+            List<Subscriber> list = byUser.get(userId);
+            if (list != null) {
+                for (Subscriber subscriber : new ArrayList<>(list)) {
+                    if (send(subscriber, event)) {
+                        delivered.increment();
+                    }
+                }
+            }
+        }
+        
+        private void sendToCourse(int courseId, byte[] event) {
+            Set<Subscriber> set = byCourse.get(courseId);
+            if (set != null) {
+                for (Subscriber subscriber : new ArrayList<>(set)) {
+                    if (send(subscriber, event)) {
+                        delivered.increment();
+                    }
+                }
+            }
+        }
+        
+        /** Queues bytes for the subscriber without blocking; drops it if it is closed or too far behind. */
+        private boolean send(Subscriber subscriber, byte[] bytes) {
+            boolean accepted;
+            boolean start = false;
+            synchronized (subscriber) {
+                // A closed subscriber hit a write error and may not have been unrouted yet
+                accepted = !subscriber.closed && subscriber.pending.size() < maxPending;
+                if (accepted) {
+                    subscriber.pending.add(bytes);
+                    start = !subscriber.draining;
+                    subscriber.draining = true;
+                } else if (!subscriber.closed) {
+                    slow.increment();
+                }
+            }
+            if (!accepted) {
+                remove(subscriber);
+                return false;
+            }
+            if (start) {
+                senders.execute(() -> drain(subscriber));
+            }
+            return true;
+        }
+        
+        /** Runs on a sender thread; writes the subscriber's queue out in order until it is empty. */
+        private void drain(Subscriber subscriber) {
+            while (true) {
+                byte[] next;
+                synchronized (subscriber) {
+                    if (subscriber.closed) {
+                        subscriber.draining = false;
+                        next = null;
+                    } else {
+                        next = subscriber.pending.poll();
+                        if (next == null) {
+                            subscriber.draining = false;
+                            return;
+                        }
+                    }
+                }
+                if (next == null) {
+                    subscriber.exchange.close();
+                    return;
+                }
+                subscriber.writingSince = System.nanoTime();
+                try {
+                    subscriber.out.write(next);
+                    subscriber.out.flush();
+                } catch (IOException e) {
+                    synchronized (subscriber) {
+                        subscriber.closed = true;
+                        subscriber.pending.clear();
+                    }
+                    // The hub unroutes it now if there is room, or at the next heartbeat
+                    queue.offer(hub -> hub.remove(subscriber));
+                } finally {
+                    subscriber.writingSince = 0;
+                }
+            }
+        }
+        
+        private void remove(Subscriber subscriber) {
+            if (subscriber.removed) {
+                return;
+            }
+            subscriber.removed = true;
+            List<Subscriber> list = byUser.get(subscriber.userId);
+            if (list != null && list.remove(subscriber) && list.isEmpty()) {
+                byUser.remove(subscriber.userId);
+            }
+            for (int courseId : subscriber.courseIds) {
+                Set<Subscriber> set = byCourse.get(courseId);
+                if (set != null && set.remove(subscriber) && set.isEmpty()) {
+                    byCourse.remove(courseId);
+                }
+            }
+            subscribers.decrementAndGet();
+            disconnected.increment();
+            boolean closeNow;
+            synchronized (subscriber) {
+                subscriber.closed = true;
+                subscriber.pending.clear();
+                // A sender still inside a write closes the exchange once the write returns
+                closeNow = !subscriber.draining;
+                subscriber.draining = true;
+            }
+            if (closeNow) {
+                senders.execute(subscriber.exchange::close);
+            }
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("subscribers", subscribers.get())
+                .put("maxSubscribers", maxSubscribers)
+                .put("queued", queue.size())
+                .put("published", published.sum())
+                .put("delivered", delivered.sum())
+                .put("dropped", dropped.sum())
+                .put("disconnected", disconnected.sum())
+                .put("slow", slow.sum());
+        }
+    }
+    
+    /**
+     * Open-addressing hash table from a long key to a fixed-width row of int
+     * counters, stored in two flat arrays so a lookup touches no boxed objects.
+     * Not thread-safe; {@link AttendanceStats} guards it.
+     */
+    static final class CounterTable {
+        private static final long EMPTY = Long.MIN_VALUE;
+        
+        private final int width;
+        private long[] keys;
+        private int[] counts;
+        private int size;
+        
+        CounterTable(int width, int expected) {
+            this.width = width;
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            this.keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            this.counts = new int[capacity * width];
+        }
+        
+        private int probe(long key) {
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+        
+        /** The row for the key, or -1 if it has none. */
+        int find(long key) {
+            int i = probe(key);
+            return keys[i] == EMPTY ? -1 : i;
+        }
+        
+        /** The row for the key, adding a zeroed one if needed; see {@link #size} to tell the two apart. */
+        int findOrInsert(long key) {
+            int i = probe(key);
+            if (keys[i] == EMPTY) {
+                if ((size + 1) * 3 > keys.length * 2) {
+                    grow();
+                    i = probe(key);
+                }
+                keys[i] = key;
+                size++;
+            }
+            return i;
+        }
+        
+        int get(int row, int column) {
+            return counts[row * width + column];
+        }
+        
+        void set(int row, int column, int value) {
+            counts[row * width + column] = value;
+        }
+        
+        void add(int row, int column, int delta) {
+            counts[row * width + column] += delta;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            counts = new int[keys.length * width];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = probe(oldKeys[i]);
+                    keys[j] = oldKeys[i];
+                    System.arraycopy(oldCounts, i * width, counts, j * width, width);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Attendance counters by status for every (user, course) pair, every user
+     * and every course, kept in step with the table: built once at startup from
+     * parallel scans over disjoint rowid ranges, then advanced by each committed
+     * mark. A summary is a few hash lookups however long the history is.
+     */
+    static class AttendanceStats {
+        static final String[] STATUSES = {"Present", "Absent", "Late", "Other"};
+        private static final int OTHER = 3;
+        /** Per-course column counting distinct students with at least one mark. */
+        private static final int STUDENTS = 4;
+        /** Per-user column holding 1 + the user's latest entry in the pair log, or 0. */
+        private static final int FIRST_PAIR = 4;
+        
+        private CounterTable byUserCourse = new CounterTable(4, 1 << 16);
+        private CounterTable byUser = new CounterTable(5, 1 << 12);
+        private CounterTable byCourse = new CounterTable(5, 1 << 10);
+        /** Append-only log of (user, course) pairs, chained per user through pairNext. */
+        private int[] pairCourse = new int[1 << 12];
+        private int[] pairNext = new int[1 << 12];
+        private int pairs;
+        
+        static long key(int userId, int courseId) {
+            return ((long) userId << 32) | (courseId & 0xFFFFFFFFL);
+        }
+        
+        static int status(String status) {
+            for (int i = 0; i < OTHER; i++) {
+                if (STATUSES[i].equalsIgnoreCase(status)) {
+                    return i;
+                }
+            }
+            return OTHER;
+        }
+        
+        /**
+         * Replaces the counters with a full scan of the attendance table. The
+         * slices are merged into fresh tables that are swapped in at the end, so
+         * calling it again recounts rather than adds; marks committed while the
+         * scan runs may be missed or counted twice, so it belongs before the
+         * commit listener is registered.
+         */
+        void rebuild(int threads) throws SQLException, InterruptedException {
+            rebuild(db, threads);
+        }
+        
+        void rebuild(ConnectionPool pool, int threads) throws SQLException, InterruptedException {
+            long min;
+            long max;
+            try (ConnectionPool.Lease lease = pool.read();
+                 ResultSet rs = lease.query(lease.prepare(Sql.ATTENDANCE_ID_RANGE))) {
+                rs.next();
+                min = rs.getLong(1);
+                max = rs.getLong(2);
+            }
+            long span = (max - min) / threads + 1;
+            AttendanceStats fresh = new AttendanceStats();
+            ExecutorService scanners = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<CounterTable>> slices = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    long from = min + t * span;
+                    long to = Math.min(max, from + span - 1);
+                    slices.add(scanners.submit(() -> scan(pool, from, to)));
+                }
+                for (Future<CounterTable> slice : slices) {
+                    CounterTable table;
+                    try {
+                        table = slice.get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                    }
+                    for (int row = 0; row < table.keys.length; row++) {
+                        long key = table.keys[row];
+                        if (key != CounterTable.EMPTY) {
+                            for (int s = 0; s < STATUSES.length; s++) {
+                                fresh.add((int) (key >> 32), (int) key, s, table.get(row, s));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                scanners.shutdown();
+            }
+            synchronized (this) {
+                byUserCourse = fresh.byUserCourse;
+                byUser = fresh.byUser;
+                byCourse = fresh.byCourse;
+                pairCourse = fresh.pairCourse;
+                pairNext = fresh.pairNext;
+                pairs = fresh.pairs;
+            }
+        }
+        
+        private static CounterTable scan(ConnectionPool pool, long from, long to) throws SQLException {
+            CounterTable table = new CounterTable(4, 1 << 14);
+            try (ConnectionPool.Lease lease = pool.read()) {
+                PreparedStatement stmt = lease.prepare(Sql.ATTENDANCE_SLICE);
+                stmt.setLong(1, from);
+                stmt.setLong(2, to);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        table.add(table.findOrInsert(key(rs.getInt(1), rs.getInt(2))), status(rs.getString(3)), 1);
+                    }
+                }
+            }
+            return table;
+        }
+        
+        /** Commit listener for the attendance writer. */
+        synchronized void marked(List<AttendanceWriter.Mark> marks) {
+            for (AttendanceWriter.Mark mark : marks) {
+                add(mark.userId, mark.courseId, status(mark.status), 1);
+            }
+        }
+        
+        private void add(int userId, int courseId, int status, int count) {
+            if (count == 0) {
+                return;
+            }
+            int known = byUserCourse.size();
+            byUserCourse.add(byUserCourse.findOrInsert(key(userId, courseId)), status, count);
+            int course = byCourse.findOrInsert(courseId);
+            boolean newPair = byUserCourse.size() > known;
+            if (newPair) {
+                byCourse.add(course, STUDENTS, 1);
+            }
+            byCourse.add(course, status, count);
+            int user = byUser.findOrInsert(userId);
+            byUser.add(user, status, count);
+            if (newPair) {
+                if (pairs == pairCourse.length) {
+                    pairCourse = Arrays.copyOf(pairCourse, pairs * 2);
+                    pairNext = Arrays.copyOf(pairNext, pairs * 2);
+                }
+                pairCourse[pairs] = courseId;
+                pairNext[pairs] = byUser.get(user, FIRST_PAIR) - 1;
+                byUser.set(user, FIRST_PAIR, ++pairs);
+            }
+        }
+        
+        private static JSONObject counters(CounterTable table, int row) {
+            JSONObject json = new JSONObject();
+            int total = 0;
+            for (int s = 0; s < STATUSES.length; s++) {
+                int n = row < 0 ? 0 : table.get(row, s);
+                json.put(STATUSES[s].toLowerCase(Locale.ROOT), n);
+                total += n;
+            }
+            int attended = row < 0 ? 0 : table.get(row, 0) + table.get(row, 2);
+            // Late still counts as attended
+            return json.put("total", total).put("rate", total == 0 ? 0 : Math.round(attended * 1000.0 / total) / 10.0);
+        }
+        
+        synchronized JSONObject user(int userId) {
+            int user = byUser.find(userId);
+            int n = 0;
+            int[] courseIds = new int[8];
+            for (int p = user < 0 ? -1 : byUser.get(user, FIRST_PAIR) - 1; p >= 0; p = pairNext[p]) {
+                if (n == courseIds.length) {
+                    courseIds = Arrays.copyOf(courseIds, n * 2);
+                }
+                courseIds[n++] = pairCourse[p];
+            }
+            Arrays.sort(courseIds, 0, n);
+            JSONArray courses = new JSONArray();
+            for (int i = 0; i < n; i++) {
+                courses.put(counters(byUserCourse, byUserCourse.find(key(userId, courseIds[i]))).put("courseId", courseIds[i]));
+            }
+            return new JSONObject()
+                .put("userId", userId)
+                .put("overall", counters(byUser, byUser.find(userId)))
+                .put("courses", courses);
+        }
+        
+        synchronized JSONObject course(int courseId) {
+            int row = byCourse.find(courseId);
+            return counters(byCourse, row)
+                .put("courseId", courseId)
+                .put("students", row < 0 ? 0 : byCourse.get(row, STUDENTS));
+        }
+        
+        synchronized JSONObject userCourse(int userId, int courseId) {
+            return counters(byUserCourse, byUserCourse.find(key(userId, courseId)))
+                .put("userId", userId)
+                .put("courseId", courseId);
+        }
+        
+        synchronized JSONObject stats() {
+            return new JSONObject()
+                .put("pairs", byUserCourse.size())
+                .put("users", byUser.size())
+                .put("courses", byCourse.size());
+        }
+    }
+    
+    static final class Course {
+        final int id;
+        final String title;
+        final String description;
+        final String instructor;
+        final String duration;
+        final int credits;
+        final String category;
+        
+        Course(ResultSet rs) throws SQLException {
+            id = rs.getInt("id");
+            title = rs.getString("title");
+            description = rs.getString("description");
+            instructor = rs.getString("instructor");
+            duration = rs.getString("duration");
+            credits = rs.getInt("credits");
+            category = rs.getString("category");
+        }
+        
+        JSONObject toJSON() {
+            JSONObject course = new JSONObject();
+            course.put("id", id);
+            course.put("title", title);
+            course.put("description", description);
+            course.put("instructor", instructor);
+            course.put("duration", duration);
+            course.put("credits", credits);
+            course.put("category", category);
+            return course;
+        }
+    }
+    
+    /**
+     * Versioned in-memory copy of the courses table together with the serialized
+     * /api/courses response. Writers call {@link #invalidate()} after committing;
+     * a rebuild that raced with a write is served once but never installed.
+     */
+    static class CourseCatalog {
+        static final class Snapshot {
+            final long version;
+            final List<Course> courses;
+            final byte[] body;
+            final String etag;
+            
+            Snapshot(long version, List<Course> courses) {
+                this.version = version;
+                this.courses = Collections.unmodifiableList(courses);
+                JSONArray array = new JSONArray();
+                for (Course course : courses) {
+                    array.put(course.toJSON());
+                }
+                this.body = new JSONObject().put("courses", array).toString().getBytes(StandardCharsets.UTF_8);
+                this.etag = etagOf(body);
+            }
+        }
+        
+        private final AtomicLong version = new AtomicLong();
+        private final ReentrantLock rebuild = new ReentrantLock();
+        private volatile Snapshot current;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder rebuilds = new LongAdder();
+        
+        Snapshot snapshot() throws SQLException {
+            Snapshot snapshot = current;
+            if (snapshot != null) {
+                hits.increment();
+                return snapshot;
+            }
+            rebuild.lock();
+            try {
+                snapshot = current;
+                if (snapshot != null) {
+                    hits.increment();
+                    return snapshot;
+                }
+                rebuilds.increment();
+                long expected = version.get();
+                List<Course> courses = new ArrayList<>();
+                try (ConnectionPool.Lease lease = db.read();
+                     ResultSet rs = lease.query(lease.prepare(Sql.COURSES))) {
+                    while (rs.next()) {
+                        courses.add(new Course(rs));
+                    }
+                }
+                snapshot = new Snapshot(expected, courses);
+                if (version.get() == expected) {
+                    current = snapshot;
+                }
+                return snapshot;
+            } finally {
+                rebuild.unlock();
+            }
+        }
+        
+        void invalidate() {
+            version.incrementAndGet();
+            current = null;
+        }
+        
+        JSONObject stats() {
+            Snapshot snapshot = current;
+            return new JSONObject()
+                .put("version", version.get())
+                .put("cached", snapshot != null)
+                .put("courses", snapshot == null ? 0 : snapshot.courses.size())
+                .put("hits", hits.sum())
+                .put("rebuilds", rebuilds.sum());
+        }
+    }
+    
+    /**
+     * Inverted index over course titles, instructors and descriptions for
+     * /api/courses/search. Loaded lazily from the catalog, then patched in
+     * place as courses are added or deleted; a bulk import drops it so the next
+     * search reloads. Updates before the first load are skipped since the load
+     * reads them from the table anyway.
+     */
+    static class CourseIndex {
+        private static final int TITLE = 3;
+        private static final int INSTRUCTOR = 2;
+        private static final int DESCRIPTION = 1;
+        private static final int DEFAULT_LIMIT = 20;
+        private static final int MAX_LIMIT = 100;
+        
+        /** term -> course id -> weight, sorted so the last query term can match as a prefix. */
+        private final TreeMap<String, Map<Integer, Integer>> postings = new TreeMap<>();
+        private final Map<Integer, Course> courses = new HashMap<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile boolean loaded;
+        private final LongAdder searches = new LongAdder();
+        private final LongAdder loads = new LongAdder();
+        
+        static List<String> terms(String text) {
+            List<String> terms = new ArrayList<>();
+            if (text == null) {
+                return terms;
+            }
+            String lower = text.toLowerCase(Locale.ROOT);
+            int start = -1;
+            for (int i = 0; i <= lower.length(); i++) {
+                boolean word = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+                if (word && start < 0) {
+                    start = i;
+                } else if (!word && start >= 0) {
+                    terms.add(lower.substring(start, i));
+                    start = -1;
+                }
+            }
+            return terms;
+        }
+        
+        private void ensureLoaded() throws SQLException {
+            if (loaded) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (!loaded) {
+                    loads.increment();
+                    for (Course course : catalog.snapshot().courses) {
+                        index(course);
+                    }
+                    loaded = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void add(Course course) {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    unindex(course.id);
+                    index(course);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void remove(int courseId) {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    unindex(courseId);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void invalidate() {
+            lock.writeLock().lock();
+            try {
+                postings.clear();
+                courses.clear();
+                loaded = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        private void index(Course course) {
+            courses.put(course.id, course);
+            post(course.id, course.title, TITLE);
+            post(course.id, course.instructor, INSTRUCTOR);
+            post(course.id, course.description, DESCRIPTION);
+        }
+        
+        private void post(int courseId, String text, int weight) {
+            for (String term : terms(text)) {
+                postings.computeIfAbsent(term, t -> new HashMap<>()).merge(courseId, weight, Integer::sum);
+            }
+        }
+        
+        private void unindex(int courseId) {
+            Course course = courses.remove(courseId);
+            if (course == null) {
+                return;
+            }
+            for (String text : new String[] {course.title, course.instructor, course.description}) {
+                for (String term : terms(text)) {
+                    Map<Integer, Integer> posting = postings.get(term);
+                    if (posting != null && posting.remove(courseId) != null && posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Courses matching every query term (the last one as a prefix), ranked by
+         * field weight scaled by how rare each term is. Each facet counts the
+         * matches that pass the other facet's filter, so the client can offer
+         * alternatives to the value already chosen.
+         */
+        JSONObject search(String query, String category, Integer credits, int offset, int limit) throws SQLException {
+            ensureLoaded();
+            searches.increment();
+            offset = Math.max(0, offset);
+            limit = Math.min(MAX_LIMIT, Math.max(1, limit));
+            lock.readLock().lock();
+            try {
+                Map<Integer, Double> scores = match(terms(query));
+                Map<String, Integer> byCategory = new HashMap<>();
+                Map<Integer, Integer> byCredits = new HashMap<>();
+                List<Course> hits = new ArrayList<>();
+                for (int id : scores.keySet()) {
+                    Course course = courses.get(id);
+                    boolean categoryOk = category == null || category.equalsIgnoreCase(course.category);
+                    boolean creditsOk = credits == null || credits == course.credits;
+                    if (creditsOk) {
+                        byCategory.merge(course.category, 1, Integer::sum);
+                    }
+                    if (categoryOk) {
+                        byCredits.merge(course.credits, 1, Integer::sum);
+                    }
+                    if (categoryOk && creditsOk) {
+                        hits.add(course);
+                    }
+                }
+                hits.sort(Comparator.comparingDouble((Course c) -> -scores.get(c.id))
+                    .thenComparing(c -> c.title, String.CASE_INSENSITIVE_ORDER)
+                    .thenComparingInt(c -> c.id));
+                
+                JSONArray page = new JSONArray();
+                for (int i = offset; i < Math.min(hits.size(), offset + limit); i++) {
+                    Course course = hits.get(i);
+                    page.put(course.toJSON().put("score", Math.round(scores.get(course.id) * 1000) / 1000.0));
+                }
+                return new JSONObject()
+                    .put("total", hits.size())
+                    .put("offset", offset)
+                    .put("limit", limit)
+                    .put("courses", page)
+                    .put("facets", new JSONObject()
+                        .put("category", facet(byCategory))
+                        .put("credits", facet(byCredits)));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private Map<Integer, Double> match(List<String> terms) {
+            Map<Integer, Double> scores = new HashMap<>();
+            if (terms.isEmpty()) {
+                for (int id : courses.keySet()) {
+                    scores.put(id, 0.0);
+                }
+                return scores;
+            }
+            for (int t = 0; t < terms.size(); t++) {
+                String term = terms.get(t);
+                Map<Integer, Integer> weights;
+                if (t == terms.size() - 1) {
+                    weights = new HashMap<>();
+                    for (Map<Integer, Integer> posting : postings.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                        posting.forEach((id, weight) -> weights.merge(id, weight, Integer::sum));
+                    }
+                } else {
+                    weights = postings.getOrDefault(term, Collections.emptyMap());
+                }
+                double idf = Math.log(1 + (double) courses.size() / Math.max(1, weights.size()));
+                if (t == 0) {
+                    weights.forEach((id, weight) -> scores.put(id, weight * idf));
+                } else {
+                    scores.keySet().retainAll(weights.keySet());
+                    scores.replaceAll((id, score) -> score + weights.get(id) * idf);
+                }
+                if (scores.isEmpty()) {
+                    break;
+                }
+            }
+            return scores;
+        }
+        
+        private static <K> JSONArray facet(Map<K, Integer> counts) {
+            List<Map.Entry<K, Integer>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort(Map.Entry.<K, Integer>comparingByValue().reversed().thenComparing(e -> String.valueOf(e.getKey())));
+            JSONArray facet = new JSONArray();
+            for (Map.Entry<K, Integer> entry : entries) {
+                facet.put(new JSONObject().put("value", entry.getKey()).put("count", entry.getValue()));
+            }
+            return facet;
+        }
+        
+        JSONObject stats() {
+            lock.readLock().lock();
+            try {
+                return new JSONObject()
+                    .put("loaded", loaded)
+                    .put("courses", courses.size())
+                    .put("terms", postings.size())
+                    .put("searches", searches.sum())
+                    .put("loads", loads.sum());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * One timetable row with the day and times packed into primitives: the day is
+     * 0 (Monday) to 6 (Sunday) and times are minutes since midnight, so
+     * {@link #slot} orders a week without string comparisons.
+     */
+    static final class TimetableSlot {
+        static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+        static final int MINUTES_PER_DAY = 24 * 60;
+        static final Comparator<TimetableSlot> ORDER = Comparator.comparingInt((TimetableSlot t) -> t.slot).thenComparingInt(t -> t.id);
+        
+        final int id;
+        final int courseId;
+        final String courseTitle;
+        final int slot;
+        final int end;
+        final String room;
+        final String instructor;
+        
+        TimetableSlot(ResultSet rs) throws SQLException {
+            id = rs.getInt("id");
+            courseId = rs.getInt("course_id");
+            courseTitle = rs.getString("title");
+            slot = parseDay(rs.getString("day")) * MINUTES_PER_DAY + parseTime(rs.getString("start_time"));
+            end = parseTime(rs.getString("end_time"));
+            room = rs.getString("room");
+            instructor = rs.getString("instructor");
+        }
+        
+        int day() {
+            return slot / MINUTES_PER_DAY;
+        }
+        
+        int start() {
+            return slot % MINUTES_PER_DAY;
+        }
+        
+        JSONObject toJSON() {
+            JSONObject item = new JSONObject();
+            item.put("courseTitle", courseTitle);
+            item.put("day", DAYS[day()]);
+            item.put("startTime", formatTime(start()));
+            item.put("endTime", formatTime(end));
+            item.put("room", room);
+            item.put("instructor", instructor);
+            return item;
+        }
+        
+        static int parseDay(String day) {
+            for (int i = 0; i < DAYS.length; i++) {
+                if (DAYS[i].equalsIgnoreCase(day.trim())) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Invalid day: " + day);
+        }
+        
+        static int parseTime(String time) {
+            String[] parts = time.trim().split(":");
+            int minutes = -1;
+            if (parts.length == 2) {
+                try {
+                    int h = Integer.parseInt(parts[0]);
+                    int m = Integer.parseInt(parts[1]);
+                    if (h >= 0 && h < 24 && m >= 0 && m < 60) {
+                        minutes = h * 60 + m;
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+            if (minutes < 0) {
+                throw new IllegalArgumentException("Invalid time: " + time);
+            }
+            return minutes;
+        }
+        
+        static String dayName(int day) {
+            return DAYS[day];
+        }
+        
+        static String formatTime(int minutes) {
+            int h = minutes / 60;
+            int m = minutes % 60;
+            return (h < 10 ? "0" : "") + h + (m < 10 ? ":0" : ":") + m;
+        }
+        
+        static TimetableSlot[] loadCourse(ConnectionPool.Lease lease, int courseId) throws SQLException {
+            List<TimetableSlot> slots = new ArrayList<>();
+            PreparedStatement stmt = lease.prepare(Sql.TIMETABLE_FOR_COURSE);
+            stmt.setInt(1, courseId);
+            try (ResultSet rs = lease.query(stmt)) {
+                while (rs.next()) {
+                    slots.add(new TimetableSlot(rs));
+                }
+            }
+            return slots.toArray(new TimetableSlot[0]);
+        }
+    }
+    
+    /**
+     * Room and instructor bookings for the whole week, kept as intervals on the
+     * {@link TimetableSlot} timeline (day * minutes-per-day + minute) in one
+     * start-ordered map per room and per instructor. Writers reserve a booking
+     * here before inserting the row, so overlapping requests cannot both pass
+     * the check; a failed insert releases it. Loaded from the timetable at
+     * startup; bookings that already overlap are kept and counted.
+     */
+    static class ScheduleIndex {
+        static final class Booking {
+            final int courseId;
+            final int start;
+            final int end;
+            final String room;
+            final String instructor;
+            
+            Booking(int courseId, int start, int end, String room, String instructor) {
+                this.courseId = courseId;
+                this.start = start;
+                this.end = end;
+                this.room = room;
+                this.instructor = instructor;
+            }
+            
+            boolean sameAs(Booking other) {
+                return courseId == other.courseId && start == other.start && end == other.end
+                    && Objects.equals(room, other.room) && Objects.equals(instructor, other.instructor);
+            }
+            
+            JSONObject toJSON() {
+                return new JSONObject()
+                    .put("courseId", courseId)
+                    .put("day", TimetableSlot.dayName(start / TimetableSlot.MINUTES_PER_DAY))
+                    .put("startTime", TimetableSlot.formatTime(start % TimetableSlot.MINUTES_PER_DAY))
+                    .put("endTime", TimetableSlot.formatTime(end - start / TimetableSlot.MINUTES_PER_DAY * TimetableSlot.MINUTES_PER_DAY))
+                    .put("room", room)
+                    .put("instructor", instructor);
+            }
+        }
+        
+        /** Thrown by {@link #reserve}; a subclass of IllegalArgumentException so the bulk import reports it per row. */
+        static final class Conflict extends IllegalArgumentException {
+            private static final long serialVersionUID = 1L;
+            final transient List<Booking> bookings;
+            
+            Conflict(String message, List<Booking> bookings) {
+                super(message);
+                this.bookings = bookings;
+            }
+            
+            JSONArray toJSON() {
+                JSONArray array = new JSONArray();
+                for (Booking booking : bookings) {
+                    array.put(booking.toJSON());
+                }
+                return array;
+            }
+        }
+        
+        private final Map<String, TreeMap<Integer, List<Booking>>> rooms = new HashMap<>();
+        private final Map<String, TreeMap<Integer, List<Booking>>> instructors = new HashMap<>();
+        private final Map<Integer, List<Booking>> byCourse = new HashMap<>();
+        /** Longest booking seen, which bounds how far back an overlap scan starts. */
+        private int longest;
+        private int size;
+        private int overlapsAtLoad;
+        private final LongAdder rejected = new LongAdder();
+        
+        /** Rooms and instructors match case-insensitively; a blank one books nothing. */
+        static String key(String name) {
+            return name == null || name.isBlank() ? null : name.trim().toLowerCase(Locale.ROOT);
+        }
+        
+        synchronized void load() throws SQLException {
+            rooms.clear();
+            instructors.clear();
+            byCourse.clear();
+            longest = 0;
+            size = 0;
+            overlapsAtLoad = 0;
+            try (ConnectionPool.Lease lease = db.read();
+                 ResultSet rs = lease.query(lease.prepare(Sql.TIMETABLE_ALL))) {
+                while (rs.next()) {
+                    TimetableSlot slot = new TimetableSlot(rs);
+                    int dayStart = slot.day() * TimetableSlot.MINUTES_PER_DAY;
+                    Booking booking = new Booking(slot.courseId, slot.slot, dayStart + slot.end, slot.room, slot.instructor);
+                    if (booking.end <= booking.start) {
+                        continue;
+                    }
+                    if (!conflicts(booking).isEmpty()) {
+                        overlapsAtLoad++;
+                    }
+                    add(booking);
+                }
+            }
+        }
+        
+        /** Books the slot, or throws {@link Conflict} naming what it would overlap. */
+        synchronized Booking reserve(int courseId, int day, int start, int end, String room, String instructor) {
+            int dayStart = day * TimetableSlot.MINUTES_PER_DAY;
+            Booking booking = new Booking(courseId, dayStart + start, dayStart + end, room, instructor);
+            List<Booking> conflicts = conflicts(booking);
+            if (!conflicts.isEmpty()) {
+                rejected.increment();
+                Booking first = conflicts.get(0);
+                String what = key(room) != null && Objects.equals(key(room), key(first.room)) ? first.room : first.instructor;
+                throw new Conflict(what + " is booked " + TimetableSlot.dayName(day) + " "
+                    + TimetableSlot.formatTime(first.start - dayStart) + "-" + TimetableSlot.formatTime(first.end - dayStart)
+                    + " for course " + first.courseId, conflicts);
+            }
+            add(booking);
+            return booking;
+        }
+        
+        synchronized void release(Booking booking) {
+            List<Booking> course = byCourse.get(booking.courseId);
+            if (course == null) {
+                return;
+            }
+            for (Iterator<Booking> it = course.iterator(); it.hasNext(); ) {
+                Booking b = it.next();
+                if (b.sameAs(booking)) {
+                    it.remove();
+                    unindex(b);
+                    break;
+                }
+            }
+            if (course.isEmpty()) {
+                byCourse.remove(booking.courseId);
+            }
+        }
+        
+        synchronized void courseDeleted(int courseId) {
+            List<Booking> course = byCourse.remove(courseId);
+            if (course != null) {
+                for (Booking booking : course) {
+                    unindex(booking);
+                }
+            }
+        }
+        
+        /**
+         * Gaps of at least {@code minutes} between {@code from} and {@code to} on
+         * the day when neither the room nor the instructor (whichever are given)
+         * is booked.
+         */
+        synchronized List<int[]> free(int day, int from, int to, int minutes, String room, String instructor) {
+            int dayStart = day * TimetableSlot.MINUTES_PER_DAY;
+            List<Booking> busy = new ArrayList<>();
+            overlapping(rooms, key(room), dayStart + from, dayStart + to, busy);
+            overlapping(instructors, key(instructor), dayStart + from, dayStart + to, busy);
+            busy.sort(Comparator.comparingInt(b -> b.start));
+            List<int[]> gaps = new ArrayList<>();
+            int cursor = dayStart + from;
+            for (Booking booking : busy) {
+                if (booking.start - cursor >= minutes) {
+                    gaps.add(new int[] {cursor - dayStart, booking.start - dayStart});
+                }
+                cursor = Math.max(cursor, booking.end);
+            }
+            if (dayStart + to - cursor >= minutes) {
+                gaps.add(new int[] {cursor - dayStart, to});
+            }
+            return gaps;
+        }
+        
+        private List<Booking> conflicts(Booking booking) {
+            List<Booking> conflicts = new ArrayList<>();
+            overlapping(rooms, key(booking.room), booking.start, booking.end, conflicts);
+            overlapping(instructors, key(booking.instructor), booking.start, booking.end, conflicts);
+            return conflicts;
+        }
+        
+        private void overlapping(Map<String, TreeMap<Integer, List<Booking>>> index, String key, int start, int end, List<Booking> out) {
+            TreeMap<Integer, List<Booking>> timeline = key == null ? null : index.get(key);
+            if (timeline == null) {
+                return;
+            }
+            for (List<Booking> bookings : timeline.subMap(start - longest, false, end, false).values()) {
+                for (Booking booking : bookings) {
+                    if (booking.end > start && !out.contains(booking)) {
+                        out.add(booking);
+                    }
+                }
+            }
+        }
+        
+        private void add(Booking booking) {
+            put(rooms, key(booking.room), booking);
+            put(instructors, key(booking.instructor), booking);
+            byCourse.computeIfAbsent(booking.courseId, id -> new ArrayList<>()).add(booking);
+            longest = Math.max(longest, booking.end - booking.start);
+            size++;
+        }
+        
+        private static void put(Map<String, TreeMap<Integer, List<Booking>>> index, String key, Booking booking) {
+            if (key != null) {
+                index.computeIfAbsent(key, k -> new TreeMap<>()).computeIfAbsent(booking.start, s -> new ArrayList<>(1)).add(booking);
+            }
+        }
+        
+        private void unindex(Booking booking) {
+            remove(rooms, key(booking.room), booking);
+            remove(instructors, key(booking.instructor), booking);
+            size--;
+        }
+        
+        private static void remove(Map<String, TreeMap<Integer, List<Booking>>> index, String key, Booking booking) {
+            TreeMap<Integer, List<Booking>> timeline = key == null ? null : index.get(key);
+            if (timeline == null) {
+                return;
+            }
+            List<Booking> bookings = timeline.get(booking.start);
+            if (bookings != null && bookings.remove(booking) && bookings.isEmpty()) {
+                timeline.remove(booking.start);
+                if (timeline.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+        
+        synchronized JSONObject stats() {
+            return new JSONObject()
+                .put("bookings", size)
+                .put("rooms", rooms.size())
+                .put("instructors", instructors.size())
+                .put("overlapsAtLoad", overlapsAtLoad)
+                .put("rejected", rejected.sum());
+        }
+    }
+    
+    /**
+     * Per-user weekly timetables, materialized on first request and kept in an
+     * access-ordered LRU map. Enrollment and timetable writes patch the cached
+     * entries in place instead of dropping them; a load that raced with a patch
+     * is served once but not installed.
+     */
+    static class TimetableCache {
+        static final class Entry {
+            final int[] courseIds;
+            final TimetableSlot[] slots;
+            final byte[] body;
+            
+            Entry(int[] courseIds, TimetableSlot[] slots) {
+                Arrays.sort(courseIds);
+                Arrays.sort(slots, TimetableSlot.ORDER);
+                this.courseIds = courseIds;
+                this.slots = slots;
+                JSONArray schedule = new JSONArray();
+                for (TimetableSlot slot : slots) {
+                    schedule.put(slot.toJSON());
+                }
+                this.body = new JSONObject().put("timetable", schedule).toString().getBytes(StandardCharsets.UTF_8);
+            }
+            
+            boolean hasCourse(int courseId) {
+                return Arrays.binarySearch(courseIds, courseId) >= 0;
+            }
+        }
+        
+        private final int maxEntries;
+        private final Map<Integer, Entry> entries;
+        private long version;
+        // Serializes read-back-and-patch so the patch from the latest read is applied last
+        private final Object reloads = new Object();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        
+        TimetableCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.entries = new LinkedHashMap<>(1024, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                    return size() > TimetableCache.this.maxEntries;
+                }
+            };
+        }
+        
+        Entry get(int userId) throws SQLException {
+            long expected;
+            synchronized (this) {
+                Entry entry = entries.get(userId);
+                if (entry != null) {
+                    hits.increment();
+                    return entry;
+                }
+                expected = version;
+            }
+            misses.increment();
+            Entry entry = load(userId);
+            synchronized (this) {
+                if (version == expected) {
+                    entries.put(userId, entry);
+                }
+            }
+            return entry;
+        }
+        
+        private Entry load(int userId) throws SQLException {
+            Set<Integer> courseIds = new HashSet<>();
+            Map<Integer, TimetableSlot> slots = new HashMap<>();
+            try (ConnectionPool.Lease lease = db.read()) {
+                PreparedStatement stmt = lease.prepare(Sql.ENROLLED_COURSES);
+                stmt.setInt(1, userId);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        courseIds.add(rs.getInt(1));
+                    }
+                }
+                stmt = lease.prepare(Sql.TIMETABLE_FOR_USER);
+                stmt.setInt(1, userId);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        TimetableSlot slot = new TimetableSlot(rs);
+                        slots.putIfAbsent(slot.id, slot);
+                    }
+                }
+            }
+            return new Entry(courseIds.stream().mapToInt(Integer::intValue).toArray(), slots.values().toArray(new TimetableSlot[0]));
+        }
+        
+        /**
+         * Adds a newly enrolled course to the user's cached timetable. Called
+         * after the enrollment committed, so the write lease is not held while
+         * the course is read back and the entry re-encoded.
+         */
+        void enrolled(int userId, int courseId) throws SQLException {
+            synchronized (reloads) {
+                TimetableSlot[] courseSlots = loadCourse(courseId);
+                enrolled(userId, courseId, courseSlots);
+            }
+        }
+        
+        private synchronized void enrolled(int userId, int courseId, TimetableSlot[] courseSlots) {
+            version++;
+            Entry entry = entries.get(userId);
+            if (entry == null || entry.hasCourse(courseId)) {
+                return;
+            }
+            int[] courseIds = Arrays.copyOf(entry.courseIds, entry.courseIds.length + 1);
+            courseIds[courseIds.length - 1] = courseId;
+            TimetableSlot[] slots = Arrays.copyOf(entry.slots, entry.slots.length + courseSlots.length);
+            System.arraycopy(courseSlots, 0, slots, entry.slots.length, courseSlots.length);
+            entries.put(userId, new Entry(courseIds, slots));
+        }
+        
+        /**
+         * Re-reads one course's slots after its change committed and replaces
+         * them in every cached timetable that includes it.
+         */
+        void courseChanged(int courseId) throws SQLException {
+            synchronized (reloads) {
+                TimetableSlot[] courseSlots = loadCourse(courseId);
+                synchronized (this) {
+                    replace(courseId, courseSlots, false);
+                }
+            }
+        }
+        
+        private static TimetableSlot[] loadCourse(int courseId) throws SQLException {
+            try (ConnectionPool.Lease lease = db.read()) {
+                return TimetableSlot.loadCourse(lease, courseId);
+            }
+        }
+        
+        synchronized void courseDeleted(int courseId) {
+            replace(courseId, new TimetableSlot[0], true);
+        }
+        
+        private void replace(int courseId, TimetableSlot[] courseSlots, boolean dropCourse) {
+            version++;
+            for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (!entry.hasCourse(courseId)) {
+                    continue;
+                }
+                List<TimetableSlot> slots = new ArrayList<>(entry.slots.length + courseSlots.length);
+                for (TimetableSlot slot : entry.slots) {
+                    if (slot.courseId != courseId) {
+                        slots.add(slot);
                     }
-                } catch (Exception e) {
+                }
+                slots.addAll(Arrays.asList(courseSlots));
+                int[] courseIds = dropCourse
+                    ? Arrays.stream(entry.courseIds).filter(id -> id != courseId).toArray()
+                    : entry.courseIds.clone();
+                e.setValue(new Entry(courseIds, slots.toArray(new TimetableSlot[0])));
+            }
+        }
+        
+        /** Drops every entry, for bulk changes too wide to patch entry by entry. */
+        synchronized void clear() {
+            version++;
+            entries.clear();
+        }
+        
+        synchronized int size() {
+            return entries.size();
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("entries", size())
+                .put("maxEntries", maxEntries)
+                .put("hits", hits.sum())
+                .put("misses", misses.sum());
+        }
+    }
+    
+    /**
+     * Quiz content per course, immutable once loaded: options are split out of
+     * the pipe-delimited column once and the response body (without answers) is
+     * encoded up front, so serving a quiz is a map lookup. Entries are evicted
+     * least-recently-used past {@code maxEntries}; {@link #invalidate} drops a
+     * course, and a load that raced with an invalidation is served but not kept.
+     */
+    static class QuizCache {
+        static final class Question {
+            final int id;
+            final String question;
+            final List<String> options;
+            
+            Question(int id, String question, String options) {
+                this.id = id;
+                this.question = question;
+                this.options = List.of(options.split("\\|"));
+            }
+            
+            JSONObject toJSON() {
+                return new JSONObject()
+                    .put("id", id)
+                    .put("question", question)
+                    .put("options", new JSONArray(options));
+            }
+        }
+        
+        static final class Entry {
+            final List<Question> questions;
+            final byte[] body;
+            final String etag;
+            
+            Entry(List<Question> questions) {
+                this.questions = List.copyOf(questions);
+                JSONArray array = new JSONArray();
+                for (Question question : questions) {
+                    array.put(question.toJSON());
+                }
+                this.body = new JSONObject().put("quizzes", array).toString().getBytes(StandardCharsets.UTF_8);
+                this.etag = etagOf(body);
+            }
+        }
+        
+        private final int maxEntries;
+        private final Map<Integer, Entry> entries;
+        private long version;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        
+        QuizCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                    return size() > QuizCache.this.maxEntries;
+                }
+            };
+        }
+        
+        Entry get(int courseId) throws SQLException {
+            long expected;
+            synchronized (this) {
+                Entry entry = entries.get(courseId);
+                if (entry != null) {
+                    hits.increment();
+                    return entry;
+                }
+                expected = version;
+            }
+            misses.increment();
+            List<Question> questions = new ArrayList<>();
+            try (ConnectionPool.Lease lease = db.read()) {
+                PreparedStatement stmt = lease.prepare(Sql.QUIZZES);
+                stmt.setInt(1, courseId);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        questions.add(new Question(rs.getInt("id"), rs.getString("question"), rs.getString("options")));
+                    }
+                }
+            }
+            Entry entry = new Entry(questions);
+            synchronized (this) {
+                if (version == expected) {
+                    entries.put(courseId, entry);
+                }
+            }
+            return entry;
+        }
+        
+        synchronized void invalidate(int courseId) {
+            version++;
+            entries.remove(courseId);
+        }
+        
+        synchronized int size() {
+            return entries.size();
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("entries", size())
+                .put("maxEntries", maxEntries)
+                .put("hits", hits.sum())
+                .put("misses", misses.sum());
+        }
+    }
+    
+    /**
+     * Correct option indexes per course, loaded on first use and held as two
+     * parallel int arrays in question id order, so grading a submission is one
+     * pass over the key with no database round trips. Bounded and evicted like
+     * {@link QuizCache}; courses without questions are never stored, so probing
+     * random course ids cannot grow the map.
+     */
+    static class AnswerKeys {
+        static final class Key {
+            final int[] questionIds;
+            final int[] answers;
+            
+            Key(int[] questionIds, int[] answers) {
+                this.questionIds = questionIds;
+                this.answers = answers;
+            }
+            
+            int size() {
+                return questionIds.length;
+            }
+        }
+        
+        private final int maxEntries;
+        private final Map<Integer, Key> keys;
+        private long version;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        
+        AnswerKeys(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.keys = new LinkedHashMap<>(256, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, Key> eldest) {
+                    return size() > AnswerKeys.this.maxEntries;
+                }
+            };
+        }
+        
+        Key get(int courseId) throws SQLException {
+            long expected;
+            synchronized (this) {
+                Key key = keys.get(courseId);
+                if (key != null) {
+                    hits.increment();
+                    return key;
+                }
+                expected = version;
+            }
+            misses.increment();
+            Key key = load(courseId);
+            synchronized (this) {
+                if (version == expected && key.size() > 0) {
+                    keys.put(courseId, key);
+                }
+            }
+            return key;
+        }
+        
+        private Key load(int courseId) throws SQLException {
+            int[] questionIds = new int[16];
+            int[] answers = new int[16];
+            int n = 0;
+            try (ConnectionPool.Lease lease = db.read()) {
+                PreparedStatement stmt = lease.prepare(Sql.QUIZ_ANSWERS);
+                stmt.setInt(1, courseId);
+                try (ResultSet rs = lease.query(stmt)) {
+                    while (rs.next()) {
+                        if (n == questionIds.length) {
+                            questionIds = Arrays.copyOf(questionIds, n * 2);
+                            answers = Arrays.copyOf(answers, n * 2);
+                        }
+                        questionIds[n] = rs.getInt(1);
+                        answers[n] = rs.getInt(2);
+                        n++;
+                    }
+                }
+            }
+            return new Key(Arrays.copyOf(questionIds, n), Arrays.copyOf(answers, n));
+        }
+        
+        synchronized void invalidate(int courseId) {
+            version++;
+            keys.remove(courseId);
+        }
+        
+        synchronized int size() {
+            return keys.size();
+        }
+        
+        JSONObject stats() {
+            return new JSONObject()
+                .put("courses", size())
+                .put("maxEntries", maxEntries)
+                .put("hits", hits.sum())
+                .put("misses", misses.sum());
+        }
+    }
+    
+    /**
+     * Tables the bulk import and export endpoints accept: the columns as they
+     * appear in files, the insert used per row and the query that streams them
+     * back out. Courses and timetable rows keep an {@code id} given in the file,
+     * so an export re-imported into an empty database still lines up with the
+     * enrollments and timetable that refer to it; rows without one get a new id.
+     */
+    enum BulkTable {
+        COURSES("courses", Sql.IMPORT_COURSE, Sql.EXPORT_COURSES,
+                "id", "title", "description", "instructor", "duration", "credits", "category") {
+            void validate(Map<String, String> row) {
+                optionalId(row);
+                required(row, "title");
+                integer(row, "credits");
+            }
+            
+            void bind(PreparedStatement stmt, Map<String, String> row) throws SQLException {
+                bindId(stmt, row);
+                stmt.setString(2, required(row, "title"));
+                stmt.setString(3, row.getOrDefault("description", ""));
+                stmt.setString(4, row.getOrDefault("instructor", ""));
+                stmt.setString(5, row.getOrDefault("duration", ""));
+                stmt.setInt(6, integer(row, "credits"));
+                stmt.setString(7, row.getOrDefault("category", ""));
+            }
+            
+            void changed() {
+                catalog.invalidate();
+                courseIndex.invalidate();
+            }
+        },
+        TIMETABLE("timetable", Sql.IMPORT_TIMETABLE, Sql.EXPORT_TIMETABLE,
+                "id", "courseId", "day", "startTime", "endTime", "room", "instructor") {
+            void validate(Map<String, String> row) {
+                optionalId(row);
+                int courseId = integer(row, "courseId");
+                int day = TimetableSlot.parseDay(required(row, "day"));
+                int start = TimetableSlot.parseTime(required(row, "startTime"));
+                int end = TimetableSlot.parseTime(required(row, "endTime"));
+                if (end <= start) {
+                    throw new IllegalArgumentException("End time must be after start time");
+                }
+                // Book last, once nothing else can reject the row
+                schedule.reserve(courseId, day, start, end, row.get("room"), row.get("instructor"));
+            }
+            
+            void rejected(Map<String, String> row) {
+                int day = TimetableSlot.parseDay(row.get("day"));
+                int dayStart = day * TimetableSlot.MINUTES_PER_DAY;
+                schedule.release(new ScheduleIndex.Booking(integer(row, "courseId"),
+                    dayStart + TimetableSlot.parseTime(row.get("startTime")), dayStart + TimetableSlot.parseTime(row.get("endTime")),
+                    row.get("room"), row.get("instructor")));
+            }
+            
+            void bind(PreparedStatement stmt, Map<String, String> row) throws SQLException {
+                bindId(stmt, row);
+                stmt.setInt(2, integer(row, "courseId"));
+                stmt.setString(3, TimetableSlot.dayName(TimetableSlot.parseDay(row.get("day"))));
+                stmt.setString(4, TimetableSlot.formatTime(TimetableSlot.parseTime(row.get("startTime"))));
+                stmt.setString(5, TimetableSlot.formatTime(TimetableSlot.parseTime(row.get("endTime"))));
+                stmt.setString(6, row.getOrDefault("room", ""));
+                stmt.setString(7, row.getOrDefault("instructor", ""));
+            }
+            
+            void changed() {
+                timetables.clear();
+            }
+        },
+        ENROLLMENTS("enrollments", Sql.IMPORT_ENROLLMENT, Sql.EXPORT_ENROLLMENTS,
+                "userId", "courseId", "progress", "enrollmentDate") {
+            void validate(Map<String, String> row) {
+                integer(row, "userId");
+                integer(row, "courseId");
+                if (row.containsKey("progress")) {
+                    integer(row, "progress");
+                }
+                if (row.containsKey("enrollmentDate")) {
                     try {
-                        sendJSON(ex, new JSONObject().put("success", false).put("message", e.getMessage()));
-                    } catch (IOException ignored) {}
+                        LocalDate.parse(row.get("enrollmentDate").trim());
+                    } catch (DateTimeParseException e) {
+                        throw new IllegalArgumentException("Invalid enrollmentDate: " + row.get("enrollmentDate"));
+                    }
                 }
-            });
+            }
+            
+            void bind(PreparedStatement stmt, Map<String, String> row) throws SQLException {
+                stmt.setInt(1, integer(row, "userId"));
+                stmt.setInt(2, integer(row, "courseId"));
+                stmt.setInt(3, row.containsKey("progress") ? integer(row, "progress") : 0);
+                stmt.setString(4, row.containsKey("enrollmentDate") ? row.get("enrollmentDate").trim() : LocalDate.now().toString());
+            }
+            
+            void changed() {
+                timetables.clear();
+            }
+        };
+        
+        final String name;
+        final Sql insert;
+        final Sql export;
+        final String[] columns;
+        
+        BulkTable(String name, Sql insert, Sql export, String... columns) {
+            this.name = name;
+            this.insert = insert;
+            this.export = export;
+            this.columns = columns;
+        }
+        
+        /** Throws IllegalArgumentException with a message fit for the per-row error report. */
+        abstract void validate(Map<String, String> row);
+        
+        /** Undoes whatever {@link #validate} claimed for a row that was then not inserted. */
+        void rejected(Map<String, String> row) {}
+        
+        abstract void bind(PreparedStatement stmt, Map<String, String> row) throws SQLException;
+        
+        /** Drops whatever caches the imported rows make stale. */
+        abstract void changed();
+        
+        static BulkTable forPath(String path, String prefix) {
+            String name = path.startsWith(prefix) ? path.substring(prefix.length()) : "";
+            for (BulkTable table : values()) {
+                if (table.name.equals(name)) {
+                    return table;
+                }
+            }
+            return null;
+        }
+        
+        static boolean isCsv(HttpExchange ex) {
+            String format = queryParams(ex).get("format");
+            if (format != null) {
+                return format.equalsIgnoreCase("csv");
+            }
+            String type = ex.getRequestHeaders().getFirst("Content-Type");
+            return type != null && type.contains("csv");
+        }
+        
+        private static void optionalId(Map<String, String> row) {
+            String id = row.get("id");
+            if (id != null && !id.isBlank()) {
+                integer(row, "id");
+            }
         }
+        
+        /** Binds parameter 1 to the row's id, or NULL so SQLite assigns one. */
+        private static void bindId(PreparedStatement stmt, Map<String, String> row) throws SQLException {
+            String id = row.get("id");
+            if (id == null || id.isBlank()) {
+                stmt.setNull(1, Types.INTEGER);
+            } else {
+                stmt.setInt(1, integer(row, "id"));
+            }
+        }
+        
+        private static String required(Map<String, String> row, String column) {
+            String value = row.get(column);
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("Missing " + column);
+            }
+            return value;
+        }
+        
+        private static int integer(Map<String, String> row, String column) {
+            String value = required(row, column).trim();
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + column + ": " + value);
+            }
+        }
+    }
+    
+    /** Minimal RFC 4180 CSV: comma separated, fields optionally quoted, quotes doubled inside. */
+    static final class Csv {
+        private Csv() {}
+        
+        /** The next record, or null at end of input; quoted fields may span lines. */
+        static List<String> read(BufferedReader in) throws IOException {
+            int c = in.read();
+            if (c < 0) {
+                return null;
+            }
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (c >= 0) {
+                if (quoted) {
+                    if (c == '"') {
+                        in.mark(1);
+                        int next = in.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            in.reset();
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = in.read();
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+        
+        static void write(Writer out, List<String> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = values.get(i);
+                if (value == null) {
+                    continue;
+                }
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(value);
+                }
+            }
+            out.write("\r\n");
+        }
+    }
+    
+    /** Fixed SQL used by the handlers; each is prepared once per pooled connection. */
+    enum Sql {
+        REGISTER("INSERT INTO users (username, password, role, email) VALUES (?, ?, ?, ?)"),
+        LOGIN("SELECT id, role, password FROM users WHERE username=?"),
+        SET_PASSWORD("UPDATE users SET password=? WHERE id=?"),
+        PROMOTE_ADMIN("UPDATE users SET role='admin' WHERE username=?"),
+        ADMINS("SELECT username FROM users WHERE role='admin'"),
+        DEMOTE_ADMIN("UPDATE users SET role='student' WHERE username=? AND role='admin'"),
+        COURSES("SELECT * FROM courses"),
+        ENROLL("INSERT INTO enrollments (user_id, course_id, progress, enrollment_date) VALUES (?, ?, 0, ?)"),
+        PROGRESS("SELECT c.*, e.progress, e.enrollment_date FROM enrollments e JOIN courses c ON e.course_id=c.id WHERE e.user_id=?"),
+        QUIZZES("SELECT id, question, options FROM quizzes WHERE course_id=? ORDER BY id"),
+        ATTENDANCE_PAGE("SELECT a.*, c.title FROM attendance a JOIN courses c ON a.course_id=c.id WHERE a.user_id=? ORDER BY a.date DESC, a.id DESC LIMIT ?"),
+        ATTENDANCE_PAGE_AFTER("SELECT a.*, c.title FROM attendance a JOIN courses c ON a.course_id=c.id WHERE a.user_id=? AND (a.date, a.id) < (?, ?) ORDER BY a.date DESC, a.id DESC LIMIT ?"),
+        MARK_ATTENDANCE("INSERT INTO attendance (user_id, course_id, date, status, marked_at) VALUES (?, ?, ?, ?, ?)"),
+        TIMETABLE_FOR_USER("SELECT t.*, c.title FROM timetable t JOIN courses c ON t.course_id=c.id JOIN enrollments e ON c.id=e.course_id WHERE e.user_id=? ORDER BY CASE t.day WHEN 'Monday' THEN 1 WHEN 'Tuesday' THEN 2 WHEN 'Wednesday' THEN 3 WHEN 'Thursday' THEN 4 WHEN 'Friday' THEN 5 WHEN 'Saturday' THEN 6 WHEN 'Sunday' THEN 7 END, t.start_time"),
+        ENROLLED_COURSES("SELECT DISTINCT course_id FROM enrollments WHERE user_id=?"),
+        TIMETABLE_FOR_COURSE("SELECT t.*, c.title FROM timetable t JOIN courses c ON t.course_id=c.id WHERE t.course_id=?"),
+        TIMETABLE_ALL("SELECT t.*, c.title FROM timetable t JOIN courses c ON t.course_id=c.id ORDER BY CASE t.day WHEN 'Monday' THEN 1 WHEN 'Tuesday' THEN 2 WHEN 'Wednesday' THEN 3 WHEN 'Thursday' THEN 4 WHEN 'Friday' THEN 5 WHEN 'Saturday' THEN 6 WHEN 'Sunday' THEN 7 END, t.start_time"),
+        ADD_COURSE("INSERT INTO courses (title, description, instructor, duration, credits, category) VALUES (?, ?, ?, ?, ?, ?)"),
+        DELETE_COURSE("DELETE FROM courses WHERE id=?"),
+        DELETE_COURSE_TIMETABLE("DELETE FROM timetable WHERE course_id=?"),
+        LAST_COURSE("SELECT * FROM courses WHERE id=last_insert_rowid()"),
+        ADD_TIMETABLE("INSERT INTO timetable (course_id, day, start_time, end_time, room, instructor) SELECT ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM courses WHERE id=?)"),
+        COURSE_EXISTS("SELECT 1 FROM courses WHERE id=?"),
+        QUIZ_ANSWERS("SELECT id, answer FROM quizzes WHERE course_id=? ORDER BY id"),
+        ADD_QUIZ_ATTEMPT("INSERT INTO quiz_attempts (user_id, course_id, score, total, answers, submitted_at) VALUES (?, ?, ?, ?, ?, ?)"),
+        RAISE_PROGRESS("UPDATE enrollments SET progress=MAX(progress, ?) WHERE user_id=? AND course_id=?"),
+        IMPORT_COURSE("INSERT INTO courses (id, title, description, instructor, duration, credits, category) VALUES (?, ?, ?, ?, ?, ?, ?)"),
+        IMPORT_TIMETABLE("INSERT INTO timetable (id, course_id, day, start_time, end_time, room, instructor) VALUES (?, ?, ?, ?, ?, ?, ?)"),
+        IMPORT_ENROLLMENT("INSERT INTO enrollments (user_id, course_id, progress, enrollment_date) VALUES (?, ?, ?, ?)"),
+        EXPORT_COURSES("SELECT id, title, description, instructor, duration, credits, category FROM courses WHERE id > ? ORDER BY id LIMIT ?"),
+        EXPORT_TIMETABLE("SELECT id, course_id, day, start_time, end_time, room, instructor FROM timetable WHERE id > ? ORDER BY id LIMIT ?"),
+        // id trails the exported columns; it is only the page cursor
+        EXPORT_ENROLLMENTS("SELECT user_id, course_id, progress, enrollment_date, id FROM enrollments WHERE id > ? ORDER BY id LIMIT ?"),
+        ATTENDANCE_ID_RANGE("SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), 0) FROM attendance"),
+        ATTENDANCE_SLICE("SELECT user_id, course_id, status FROM attendance WHERE id BETWEEN ? AND ?");
+        
+        final String text;
+        
+        Sql(String text) {
+            this.text = text;
+        }
+    }
+    
+    /**
+     * SQLite connection pool: one writer connection guarded by a fair lock and
+     * a bounded set of read-only connections opened on demand. The database runs
+     * in WAL mode so readers never block behind the writer.
+     */
+    static class ConnectionPool {
+        private static final int SQLITE_OPEN_READONLY = 0x01;
+        
+        private final String url;
+        private final int maxReaders;
+        private final long timeoutMillis;
+        private final Map<String, String> pragmas;
+        private final PooledConnection writer;
+        private final ReentrantLock writerLock = new ReentrantLock(true);
+        private final BlockingQueue<PooledConnection> idleReaders;
+        private final AtomicInteger openReaders = new AtomicInteger();
+        private final AtomicInteger activeReaders = new AtomicInteger();
+        
+        private final LongAdder readCheckouts = new LongAdder();
+        private final LongAdder writeCheckouts = new LongAdder();
+        private final LongAdder readWaitNanos = new LongAdder();
+        private final LongAdder writeWaitNanos = new LongAdder();
+        private final LongAdder readHeldNanos = new LongAdder();
+        private final LongAdder writeHeldNanos = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        
+        private final LongAdder statementHits = new LongAdder();
+        private final LongAdder statementPrepares = new LongAdder();
+        private final LongAdder leakedResultSets = new LongAdder();
+        
+        ConnectionPool(String url, int maxReaders, long timeoutMillis, Map<String, String> pragmas) throws SQLException {
+            this.url = url;
+            this.maxReaders = Math.max(1, maxReaders);
+            this.timeoutMillis = timeoutMillis;
+            this.pragmas = pragmas;
+            this.idleReaders = new ArrayBlockingQueue<>(this.maxReaders);
+            this.writer = open(false);
+        }
+        
+        private PooledConnection open(boolean readOnly) throws SQLException {
+            Properties props = new Properties();
+            props.setProperty("busy_timeout", Long.toString(timeoutMillis));
+            if (readOnly) {
+                props.setProperty("open_mode", Integer.toString(SQLITE_OPEN_READONLY));
+            }
+            Connection conn = DriverManager.getConnection(url, props);
+            try (Statement stmt = conn.createStatement()) {
+                for (Map.Entry<String, String> pragma : pragmas.entrySet()) {
+                    // journal_mode is a property of the database file, only the writer sets it
+                    if (readOnly && pragma.getKey().equals("journal_mode")) {
+                        continue;
+                    }
+                    if (!pragma.getValue().matches("[A-Za-z0-9_-]+")) {
+                        throw new SQLException("Invalid value for PRAGMA " + pragma.getKey() + ": " + pragma.getValue());
+                    }
+                    stmt.execute("PRAGMA " + pragma.getKey() + "=" + pragma.getValue());
+                }
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            return new PooledConnection(conn);
+        }
+        
+        Lease read() throws SQLException {
+            long start = System.nanoTime();
+            PooledConnection c = idleReaders.poll();
+            while (c == null) {
+                int n = openReaders.get();
+                if (n < maxReaders) {
+                    if (openReaders.compareAndSet(n, n + 1)) {
+                        try {
+                            c = open(true);
+                        } catch (SQLException e) {
+                            openReaders.decrementAndGet();
+                            throw e;
+                        }
+                    }
+                    continue;
+                }
+                try {
+                    c = idleReaders.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a read connection");
+                }
+                if (c == null) {
+                    timeouts.increment();
+                    throw new SQLException("Timed out waiting for a read connection");
+                }
+            }
+            activeReaders.incrementAndGet();
+            readCheckouts.increment();
+            return new Lease(c, false, recordWait(readWaitNanos, start));
+        }
+        
+        Lease write() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                if (!writerLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    throw new SQLException("Timed out waiting for the write connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for the write connection");
+            }
+            writeCheckouts.increment();
+            return new Lease(writer, true, recordWait(writeWaitNanos, start));
+        }
+        
+        private long recordWait(LongAdder total, long start) {
+            long now = System.nanoTime();
+            long waited = now - start;
+            total.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            return now;
+        }
+        
+        private void release(Lease lease) {
+            long held = System.nanoTime() - lease.acquiredAt;
+            PooledConnection c = lease.pooled;
+            if (lease.results != null) {
+                for (ResultSet rs : lease.results) {
+                    try {
+                        if (!rs.isClosed()) {
+                            leakedResultSets.increment();
+                            rs.close();
+                        }
+                    } catch (SQLException ignored) {}
+                }
+            }
+            try {
+                if (!c.connection.getAutoCommit()) {
+                    c.connection.rollback();
+                    c.connection.setAutoCommit(true);
+                }
+            } catch (SQLException ignored) {}
+            Metrics.dbTime(held);
+            if (lease.writer) {
+                writeHeldNanos.add(held);
+                writerLock.unlock();
+            } else {
+                readHeldNanos.add(held);
+                activeReaders.decrementAndGet();
+                idleReaders.offer(c);
+            }
+        }
+        
+        JSONObject stats() {
+            long reads = readCheckouts.sum();
+            long writes = writeCheckouts.sum();
+            return new JSONObject()
+                .put("maxReaders", maxReaders)
+                .put("openReaders", openReaders.get())
+                .put("activeReaders", activeReaders.get())
+                .put("writerBusy", writerLock.isLocked())
+                .put("writerQueue", writerLock.getQueueLength())
+                .put("readCheckouts", reads)
+                .put("writeCheckouts", writes)
+                .put("avgReadWaitMicros", reads == 0 ? 0 : readWaitNanos.sum() / reads / 1000)
+                .put("avgWriteWaitMicros", writes == 0 ? 0 : writeWaitNanos.sum() / writes / 1000)
+                .put("avgReadHeldMicros", reads == 0 ? 0 : readHeldNanos.sum() / reads / 1000)
+                .put("avgWriteHeldMicros", writes == 0 ? 0 : writeHeldNanos.sum() / writes / 1000)
+                .put("maxWaitMicros", maxWaitNanos.get() / 1000)
+                .put("timeouts", timeouts.sum())
+                .put("statementHits", statementHits.sum())
+                .put("statementPrepares", statementPrepares.sum())
+                .put("leakedResultSets", leakedResultSets.sum());
+        }
+        
+        /** A pooled connection and the statements prepared on it, indexed by {@link Sql#ordinal()}. */
+        private static final class PooledConnection {
+            final Connection connection;
+            final PreparedStatement[] statements = new PreparedStatement[Sql.values().length];
+            
+            PooledConnection(Connection connection) {
+                this.connection = connection;
+            }
+        }
+        
+        /**
+         * A checked-out connection; closing it returns the connection to the pool.
+         * Statements from {@link #prepare} are cached on the connection and must not
+         * be closed by the caller. Result sets opened through {@link #query} are
+         * closed on release if the caller forgot to.
+         */
+        final class Lease implements AutoCloseable {
+            private final PooledConnection pooled;
+            private final boolean writer;
+            private final long acquiredAt;
+            private List<ResultSet> results;
+            private boolean released;
+            
+            private Lease(PooledConnection pooled, boolean writer, long acquiredAt) {
+                this.pooled = pooled;
+                this.writer = writer;
+                this.acquiredAt = acquiredAt;
+            }
+            
+            Connection connection() {
+                return pooled.connection;
+            }
+            
+            PreparedStatement prepare(Sql sql) throws SQLException {
+                PreparedStatement stmt = pooled.statements[sql.ordinal()];
+                if (stmt == null) {
+                    stmt = pooled.connection.prepareStatement(sql.text);
+                    pooled.statements[sql.ordinal()] = stmt;
+                    statementPrepares.increment();
+                } else {
+                    stmt.clearParameters();
+                    statementHits.increment();
+                }
+                return stmt;
+            }
+            
+            ResultSet query(PreparedStatement stmt) throws SQLException {
+                ResultSet rs = stmt.executeQuery();
+                if (results == null) {
+                    results = new ArrayList<>(2);
+                }
+                results.add(rs);
+                return rs;
+            }
+            
+            public void close() {
+                if (!released) {
+                    released = true;
+                    release(this);
+                }
+            }
+        }
+    }
+    
+    private static Map<String, String> queryParams(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
     }
     
     private static void setCORS(HttpExchange ex) {
         ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
         ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Authorization");
     }
     
-    private static void sendJSON(HttpExchange ex, JSONObject json) throws IOException {
-        String response = json.toString();
-        ex.getResponseHeaders().set("Content-Type", "application/json");
-        ex.sendResponseHeaders(200, response.length());
-        ex.getResponseBody().write(response.getBytes());
+    private static String bearerToken(HttpExchange ex) {
+        String header = ex.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+    
+    /** The session for the request's bearer token; answers 401 and returns null if it is missing or invalid. */
+    private static Sessions.Session authenticate(HttpExchange ex) throws IOException {
+        return authenticate(ex, bearerToken(ex));
+    }
+    
+    private static Sessions.Session authenticate(HttpExchange ex, String token) throws IOException {
+        Sessions.Session session = token != null ? sessions.verify(token) : null;
+        if (session == null) {
+            ex.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            sendJSON(ex, 401, new JSONObject().put("success", false).put("message", "Login required"));
+        }
+        return session;
+    }
+    
+    /** Like {@link #authenticate}, and answers 403 unless the session may act for the user. */
+    private static Sessions.Session authorize(HttpExchange ex, int userId) throws IOException {
+        Sessions.Session session = authenticate(ex);
+        if (session != null && !session.mayActFor(userId)) {
+            sendJSON(ex, 403, new JSONObject().put("success", false).put("message", "Not allowed for this user"));
+            return null;
+        }
+        return session;
+    }
+    
+    /** Like {@link #authenticate}, and answers 403 unless the session belongs to an admin. */
+    private static Sessions.Session authorizeAdmin(HttpExchange ex) throws IOException {
+        Sessions.Session session = authenticate(ex);
+        if (session != null && !session.isAdmin()) {
+            sendJSON(ex, 403, new JSONObject().put("success", false).put("message", "Admin role required"));
+            return null;
+        }
+        return session;
+    }
+    
+    private static void sendJSON(HttpExchange ex, byte[] body) throws IOException {
+        sendJSON(ex, 200, body);
+    }
+    
+    private static void sendJSON(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        ex.getResponseBody().write(body);
         ex.close();
     }
+    
+    /** Reports a failure as {"error": ...}, or just ends the exchange if a streamed body is already on the wire. */
+    private static void sendError(HttpExchange ex, JsonWriter partial, Exception e) {
+        if (partial != null && partial.abandon()) {
+            ex.close();
+            return;
+        }
+        try {
+            sendJSON(ex, new JSONObject().put("error", e.getMessage()));
+        } catch (IOException ignored) {}
+    }
+    
+    private static String etagOf(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 12)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static void sendJSON(HttpExchange ex, JSONObject json) throws IOException {
+        sendJSON(ex, 200, json);
+    }
+    
+    private static void sendJSON(HttpExchange ex, int status, JSONObject json) throws IOException {
+        sendJSON(ex, status, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package elearning.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Row-to-JSON mapping for the attendance history query: building an org.json
+ * tree and serializing it, as the handlers originally did, against streaming
+ * the rows through the server's JsonWriter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonMappingBenchmark {
+    private static final Class<?> WRITER = Server.type("JsonWriter");
+    private static final MethodHandle NEW_WRITER = Server.constructor(WRITER, HttpExchange.class, int.class);
+    private static final MethodHandle BEGIN_OBJECT = Server.method(WRITER, "beginObject", WRITER);
+    private static final MethodHandle END_OBJECT = Server.method(WRITER, "endObject", WRITER);
+    private static final MethodHandle BEGIN_ARRAY = Server.method(WRITER, "beginArray", WRITER);
+    private static final MethodHandle END_ARRAY = Server.method(WRITER, "endArray", WRITER);
+    private static final MethodHandle NAME = Server.method(WRITER, "name", WRITER, String.class);
+    private static final MethodHandle FIELD_STRING = Server.method(WRITER, "field", WRITER, String.class, String.class);
+    private static final MethodHandle FIELD_LONG = Server.method(WRITER, "field", WRITER, String.class, long.class);
+    private static final MethodHandle FINISH = Server.method(WRITER, "finish", void.class);
+    
+    @Param({"10", "1000"})
+    int rows;
+    
+    private Connection conn;
+    private PreparedStatement query;
+    private NullExchange exchange;
+    
+    @Setup
+    public void setup() throws Throwable {
+        conn = Seeder.open(":memory:");
+        new Seeder(50, 20, 3, rows).seed(conn);
+        // Every row in the table belongs to one user so the query returns exactly `rows` rows
+        conn.createStatement().execute("UPDATE attendance SET user_id = 1");
+        query = conn.prepareStatement(Server.sql("ATTENDANCE"));
+        query.setInt(1, 1);
+        exchange = new NullExchange("/api/attendance?userId=1");
+    }
+    
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+    
+    @Benchmark
+    public void orgJsonTree(Blackhole bh) throws Exception {
+        JSONArray records = new JSONArray();
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                JSONObject record = new JSONObject();
+                record.put("id", rs.getInt("id"));
+                record.put("courseTitle", rs.getString("title"));
+                record.put("date", rs.getString("date"));
+                record.put("status", rs.getString("status"));
+                records.put(record);
+            }
+        }
+        bh.consume(new JSONObject().put("attendance", records).toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    @Benchmark
+    public long jsonWriterStream() throws Throwable {
+        Object json = NEW_WRITER.invoke((HttpExchange) exchange.reset(), 200);
+        try (ResultSet rs = query.executeQuery()) {
+            BEGIN_ARRAY.invoke(NAME.invoke(BEGIN_OBJECT.invoke(json), "attendance"));
+            while (rs.next()) {
+                BEGIN_OBJECT.invoke(json);
+                FIELD_LONG.invoke(json, "id", (long) rs.getInt("id"));
+                FIELD_STRING.invoke(json, "courseTitle", rs.getString("title"));
+                FIELD_STRING.invoke(json, "date", rs.getString("date"));
+                FIELD_STRING.invoke(json, "status", rs.getString("status"));
+                END_OBJECT.invoke(json);
+            }
+            END_OBJECT.invoke(END_ARRAY.invoke(json));
+        }
+        FINISH.invoke(json);
+        return exchange.bytesWritten;
+    }
+}
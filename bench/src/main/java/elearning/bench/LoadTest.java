@@ -0,0 +1,283 @@
+package elearning.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.json.JSONObject;
+
+/**
+ * Closed-loop load generator for every context the server registers.
+ *
+ * <pre>
+ *   java -cp bench/target/benchmarks.jar elearning.bench.LoadTest seed --db load.db
+ *   java -Delearning.db.url=jdbc:sqlite:load.db -Delearning.auth.secret=s3cret -jar target/elearning-system-1.0-SNAPSHOT.jar
+ *   java -cp bench/target/benchmarks.jar elearning.bench.LoadTest run --url http://localhost:8080 --threads 64 --duration 60 --secret s3cret
+ * </pre>
+ *
+ * Each worker sends its next request as soon as the previous one completes and
+ * records the latency per endpoint; the report lists throughput and
+ * p50/p99/p99.9 for each. Protected endpoints need a bearer token per user:
+ * with {@code --secret} (the server's elearning.auth.secret) tokens are signed
+ * locally, otherwise each user logs in once on first use, outside the
+ * measurements. User 1 is seeded as the admin and sends the admin requests.
+ */
+public final class LoadTest {
+    private static final int ADMIN = 1;
+    
+    private final String baseUrl;
+    private final int users;
+    private final int courses;
+    private final HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Integer, String> tokens = new ConcurrentHashMap<>();
+    private final byte[] secret;
+    private int totalWeight;
+    
+    /** One registered context, a request mix weight, and how to build a request for it. */
+    private static final class Endpoint {
+        final String name;
+        final int weight;
+        final Function<ThreadLocalRandom, HttpRequest> request;
+        final Histogram latency = new ConcurrentHistogram(3_600_000_000L, 3);
+        final LongAdder errors = new LongAdder();
+        
+        Endpoint(String name, int weight, Function<ThreadLocalRandom, HttpRequest> request) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+    }
+    
+    LoadTest(String baseUrl, int users, int courses, String secret) {
+        this.baseUrl = baseUrl;
+        this.users = users;
+        this.courses = courses;
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        
+        // Weights approximate dashboard traffic: reads dominate, admin writes are rare
+        add("/", 5, r -> get("/"));
+        add("/api/courses", 20, r -> get("/api/courses"));
+        add("/api/timetable", 15, r -> {
+            int user = user(r);
+            return get("/api/timetable?userId=" + user, user);
+        });
+        add("/api/attendance", 15, r -> {
+            int user = user(r);
+            return get("/api/attendance?userId=" + user, user);
+        });
+        add("/api/progress", 10, r -> {
+            int user = user(r);
+            return get("/api/progress?userId=" + user, user);
+        });
+        add("/api/quiz", 5, r -> get("/api/quiz?courseId=" + course(r)));
+        add("/api/login", 10, r -> {
+            int user = user(r);
+            return post("/api/login", "{\"username\":\"user" + user + "\",\"password\":\"password" + user + "\"}");
+        });
+        add("/api/mark-attendance", 10, r -> {
+            int user = user(r);
+            return post("/api/mark-attendance", "{\"userId\":" + user + ",\"courseId\":" + course(r)
+                + ",\"status\":\"" + Seeder.STATUSES[r.nextInt(Seeder.STATUSES.length)] + "\"}", user);
+        });
+        add("/api/enroll", 3, r -> {
+            int user = user(r);
+            return post("/api/enroll", "{\"userId\":" + user + ",\"courseId\":" + course(r) + "}", user);
+        });
+        add("/api/register", 2, r -> {
+            long n = sequence.incrementAndGet();
+            return post("/api/register", "{\"username\":\"load" + System.nanoTime() + "_" + n + "\",\"email\":\"load" + n + "@example.edu\",\"password\":\"secret" + n + "\"}");
+        });
+        add("/api/add-timetable", 1, r -> {
+            int start = 7 + r.nextInt(12);
+            return post("/api/add-timetable", "{\"courseId\":" + course(r) + ",\"day\":\"" + Seeder.DAYS[r.nextInt(Seeder.DAYS.length)]
+                + "\",\"startTime\":\"" + String.format("%02d:00", start) + "\",\"endTime\":\"" + String.format("%02d:00", start + 1)
+                + "\",\"room\":\"Load Room " + r.nextInt(10000) + "\",\"instructor\":\"Load Instructor " + r.nextInt(10000) + "\"}", ADMIN);
+        });
+        add("/api/add-course", 1, r -> post("/api/add-course",
+            "{\"title\":\"Load Test Course\",\"description\":\"Created by LoadTest\",\"instructor\":\"Load Instructor\",\"duration\":\"1 week\",\"credits\":1,\"category\":\"Load\"}", ADMIN));
+        // Negative ids never match, so deletes exercise the path without eating the seeded catalog
+        add("/api/delete-course", 1, r -> post("/api/delete-course", "{\"courseId\":" + (-1 - r.nextInt(1000)) + "}", ADMIN));
+    }
+    
+    private void add(String name, int weight, Function<ThreadLocalRandom, HttpRequest> request) {
+        endpoints.add(new Endpoint(name, weight, request));
+        totalWeight += weight;
+    }
+    
+    private int user(ThreadLocalRandom r) {
+        return 1 + r.nextInt(users);
+    }
+    
+    private int course(ThreadLocalRandom r) {
+        return 1 + r.nextInt(courses);
+    }
+    
+    private HttpRequest get(String path) {
+        return get(path, 0);
+    }
+    
+    private HttpRequest get(String path, int asUser) {
+        return builder(path, asUser).GET().build();
+    }
+    
+    private HttpRequest post(String path, String body) {
+        return post(path, body, 0);
+    }
+    
+    private HttpRequest post(String path, String body, int asUser) {
+        return builder(path, asUser)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+    
+    private HttpRequest.Builder builder(String path, int asUser) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30));
+        if (asUser > 0) {
+            builder.header("Authorization", "Bearer " + tokens.computeIfAbsent(asUser, this::token));
+        }
+        return builder;
+    }
+    
+    /** A bearer token for a seeded user, signed locally when the server secret is known. */
+    private String token(int user) {
+        try {
+            if (secret != null) {
+                String role = user == ADMIN ? "admin" : user % 100 == 0 ? "instructor" : "student";
+                Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+                String payload = b64.encodeToString((user + ":" + role + ":" + (Instant.now().getEpochSecond() + 86400)).getBytes(StandardCharsets.UTF_8));
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+                return payload + "." + b64.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+            }
+            HttpResponse<String> response = client.send(
+                post("/api/login", "{\"username\":\"user" + user + "\",\"password\":\"password" + user + "\"}"),
+                HttpResponse.BodyHandlers.ofString());
+            return new JSONObject(response.body()).getString("token");
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not get a token for user" + user, e);
+        }
+    }
+    
+    private Endpoint pick(ThreadLocalRandom r) {
+        int n = r.nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints) {
+            n -= endpoint.weight;
+            if (n < 0) {
+                return endpoint;
+            }
+        }
+        throw new AssertionError();
+    }
+    
+    private void worker(long recordFrom, long until) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        while (System.nanoTime() < until) {
+            Endpoint endpoint = pick(r);
+            HttpRequest request;
+            try {
+                request = endpoint.request.apply(r);
+            } catch (IllegalStateException e) {
+                endpoint.errors.increment();
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                ok = response.statusCode() < 400;
+            } catch (Exception e) {
+                ok = false;
+            }
+            long end = System.nanoTime();
+            if (start >= recordFrom) {
+                endpoint.latency.recordValue(Math.max(1, (end - start) / 1000));
+                if (!ok) {
+                    endpoint.errors.increment();
+                }
+            }
+        }
+    }
+    
+    void run(int threads, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long now = System.nanoTime();
+        long recordFrom = now + warmupSeconds * 1_000_000_000L;
+        long until = recordFrom + durationSeconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> worker(recordFrom, until), "load-" + i);
+            t.start();
+            workers.add(t);
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        report(durationSeconds);
+    }
+    
+    private void report(int durationSeconds) {
+        System.out.printf("%-22s %10s %10s %10s %10s %10s %10s %8s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        long total = 0;
+        for (Endpoint e : endpoints) {
+            Histogram h = e.latency;
+            long count = h.getTotalCount();
+            total += count;
+            System.out.printf("%-22s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %8d%n", e.name, count, count / (double) durationSeconds,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0, e.errors.sum());
+        }
+        System.out.printf("%-22s %10d %10.1f%n", "total", total, total / (double) durationSeconds);
+    }
+    
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0 || !(args[0].equals("seed") || args[0].equals("run"))) {
+            System.err.println("usage: LoadTest seed [--db load.db] [--users 100000] [--courses 2000] [--enrollments 5] [--attendance 1000000]");
+            System.err.println("       LoadTest run [--url http://localhost:8080] [--threads 32] [--warmup 10] [--duration 60] [--users 100000] [--courses 2000] [--secret <elearning.auth.secret>]");
+            System.exit(2);
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int users = Integer.parseInt(options.getOrDefault("users", "100000"));
+        int courses = Integer.parseInt(options.getOrDefault("courses", "2000"));
+        
+        if (args[0].equals("seed")) {
+            long start = System.nanoTime();
+            try (Connection conn = Seeder.open(options.getOrDefault("db", "load.db"))) {
+                new Seeder(users, courses,
+                    Integer.parseInt(options.getOrDefault("enrollments", "5")),
+                    Integer.parseInt(options.getOrDefault("attendance", "1000000"))).seed(conn);
+            }
+            System.out.printf("Seeding took %.1f s%n", (System.nanoTime() - start) / 1e9);
+        } else {
+            new LoadTest(options.getOrDefault("url", "http://localhost:8080"), users, courses, options.get("secret")).run(
+                Integer.parseInt(options.getOrDefault("threads", "32")),
+                Integer.parseInt(options.getOrDefault("warmup", "10")),
+                Integer.parseInt(options.getOrDefault("duration", "60")));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package elearning.bench;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/** An HttpExchange that discards the response body, counting the bytes written. */
+final class NullExchange extends HttpExchange {
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final URI uri;
+    private int responseCode = -1;
+    long bytesWritten;
+    
+    private final OutputStream body = new OutputStream() {
+        public void write(int b) {
+            bytesWritten++;
+        }
+        
+        public void write(byte[] b, int off, int len) {
+            bytesWritten += len;
+        }
+    };
+    
+    NullExchange(String uri) {
+        this.uri = URI.create(uri);
+    }
+    
+    /** Clears per-request state so one instance can be reused across invocations. */
+    NullExchange reset() {
+        responseHeaders.clear();
+        responseCode = -1;
+        bytesWritten = 0;
+        return this;
+    }
+    
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+    
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+    
+    public URI getRequestURI() {
+        return uri;
+    }
+    
+    public String getRequestMethod() {
+        return "GET";
+    }
+    
+    public HttpContext getHttpContext() {
+        return null;
+    }
+    
+    public void close() {}
+    
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+    
+    public OutputStream getResponseBody() {
+        return body;
+    }
+    
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        responseCode = rCode;
+    }
+    
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+    
+    public int getResponseCode() {
+        return responseCode;
+    }
+    
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+    
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+    
+    public Object getAttribute(String name) {
+        return null;
+    }
+    
+    public void setAttribute(String name, Object value) {}
+    
+    public void setStreams(InputStream i, OutputStream o) {}
+    
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,166 @@
+package elearning.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Fills a SQLite file with a realistic term's worth of data. The schema comes
+ * from the server's own migrations, so a seeded file can be served directly.
+ * Data is deterministic for a given size: user N is {@code user<N>} with
+ * password {@code password<N>}.
+ */
+final class Seeder {
+    static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+    static final String[] CATEGORIES = {"Programming", "Web", "Database", "AI", "Mathematics", "Physics", "Business", "Design"};
+    static final String[] STATUSES = {"Present", "Present", "Present", "Present", "Present", "Present", "Absent", "Late"};
+    private static final String[] WORDS = {
+        "Introduction", "Advanced", "Applied", "Foundations", "Systems", "Theory", "Programming", "Networks",
+        "Algorithms", "Databases", "Security", "Design", "Analysis", "Statistics", "Learning", "Computing",
+        "Distributed", "Software", "Engineering", "Data", "Web", "Mobile", "Cloud", "Graphics"};
+    private static final int BATCH = 10000;
+    
+    private static final MethodHandle MIGRATE = Server.staticMethod(Server.type("Migrations"), "apply", int.class, Connection.class);
+    
+    final int users;
+    final int courses;
+    final int enrollmentsPerUser;
+    final int attendanceRows;
+    
+    Seeder(int users, int courses, int enrollmentsPerUser, int attendanceRows) {
+        this.users = users;
+        this.courses = courses;
+        this.enrollmentsPerUser = enrollmentsPerUser;
+        this.attendanceRows = attendanceRows;
+    }
+    
+    static Connection open(String path) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + path);
+    }
+    
+    void seed(Connection conn) throws Throwable {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=OFF");
+        }
+        int applied = (int) MIGRATE.invoke(conn);
+        Random random = new Random(42);
+        conn.setAutoCommit(false);
+        
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO users (id, username, password, role, email) VALUES (?, ?, ?, ?, ?)")) {
+            for (int id = 1; id <= users; id++) {
+                stmt.setInt(1, id);
+                stmt.setString(2, "user" + id);
+                stmt.setString(3, "password" + id);
+                stmt.setString(4, id == 1 ? "admin" : id % 100 == 0 ? "instructor" : "student");
+                stmt.setString(5, "user" + id + "@example.edu");
+                add(conn, stmt, id);
+            }
+            flush(conn, stmt);
+        }
+        
+        try (PreparedStatement course = conn.prepareStatement("INSERT INTO courses (id, title, description, instructor, duration, credits, category) VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement slot = conn.prepareStatement("INSERT INTO timetable (course_id, day, start_time, end_time, room, instructor) VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement quiz = conn.prepareStatement("INSERT INTO quizzes (course_id, question, options, answer) VALUES (?, ?, ?, ?)")) {
+            for (int id = 1; id <= courses; id++) {
+                String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + id;
+                String instructor = "Dr. Instructor " + (1 + random.nextInt(Math.max(1, courses / 4)));
+                course.setInt(1, id);
+                course.setString(2, title);
+                course.setString(3, "Course covering " + title.toLowerCase() + " with weekly labs and assessments");
+                course.setString(4, instructor);
+                course.setString(5, (6 + random.nextInt(7)) + " weeks");
+                course.setInt(6, 1 + random.nextInt(5));
+                course.setString(7, CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                course.addBatch();
+                
+                int slots = 2 + random.nextInt(2);
+                for (int s = 0; s < slots; s++) {
+                    int start = 8 + random.nextInt(9);
+                    slot.setInt(1, id);
+                    slot.setString(2, DAYS[random.nextInt(DAYS.length)]);
+                    slot.setString(3, String.format("%02d:00", start));
+                    slot.setString(4, String.format("%02d:00", start + 1 + random.nextInt(2)));
+                    slot.setString(5, "Room " + (100 + random.nextInt(Math.max(10, courses / 10))));
+                    slot.setString(6, instructor);
+                    slot.addBatch();
+                }
+                for (int q = 1; q <= 5; q++) {
+                    quiz.setInt(1, id);
+                    quiz.setString(2, "Question " + q + " for " + title + "?");
+                    quiz.setString(3, "Option A|Option B|Option C|Option D");
+                    quiz.setInt(4, random.nextInt(4));
+                    quiz.addBatch();
+                }
+                if (id % 1000 == 0) {
+                    course.executeBatch();
+                    slot.executeBatch();
+                    quiz.executeBatch();
+                }
+            }
+            course.executeBatch();
+            slot.executeBatch();
+            quiz.executeBatch();
+            conn.commit();
+        }
+        
+        String today = LocalDate.now().toString();
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT OR IGNORE INTO enrollments (user_id, course_id, progress, enrollment_date) VALUES (?, ?, ?, ?)")) {
+            int n = 0;
+            for (int user = 1; user <= users; user++) {
+                for (int e = 0; e < enrollmentsPerUser; e++) {
+                    stmt.setInt(1, user);
+                    stmt.setInt(2, enrolledCourse(user, e));
+                    stmt.setInt(3, random.nextInt(101));
+                    stmt.setString(4, today);
+                    add(conn, stmt, ++n);
+                }
+            }
+            flush(conn, stmt);
+        }
+        
+        LocalDate first = LocalDate.now().minusYears(3);
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO attendance (user_id, course_id, date, status, marked_at) VALUES (?, ?, ?, ?, ?)")) {
+            for (int n = 1; n <= attendanceRows; n++) {
+                int user = 1 + random.nextInt(users);
+                LocalDate date = first.plusDays(random.nextInt(3 * 365));
+                stmt.setInt(1, user);
+                stmt.setInt(2, enrolledCourse(user, random.nextInt(enrollmentsPerUser)));
+                stmt.setString(3, date.toString());
+                stmt.setString(4, STATUSES[random.nextInt(STATUSES.length)]);
+                stmt.setString(5, date + "T09:00:00");
+                add(conn, stmt, n);
+            }
+            flush(conn, stmt);
+        }
+        
+        conn.setAutoCommit(true);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ANALYZE");
+        }
+        System.out.println("Seeded " + users + " users, " + courses + " courses, " + attendanceRows
+            + " attendance rows (" + applied + " migrations applied)");
+    }
+    
+    /** The e-th course user is enrolled in; spread so every course gets students. */
+    int enrolledCourse(int user, int e) {
+        return 1 + (int) (((long) user * 7919 + (long) e * 104729) % courses);
+    }
+    
+    private static void add(Connection conn, PreparedStatement stmt, int n) throws SQLException {
+        stmt.addBatch();
+        if (n % BATCH == 0) {
+            flush(conn, stmt);
+        }
+    }
+    
+    private static void flush(Connection conn, PreparedStatement stmt) throws SQLException {
+        stmt.executeBatch();
+        conn.commit();
+    }
+}
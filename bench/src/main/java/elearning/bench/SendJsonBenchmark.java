@@ -0,0 +1,62 @@
+package elearning.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The response path: sendJSON serializing an org.json tree per request against
+ * writing the pre-encoded bytes that the course catalog and timetable caches hold.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendJsonBenchmark {
+    private static final Class<?> SERVER = Server.type(null);
+    private static final MethodHandle SEND_TREE = Server.staticMethod(SERVER, "sendJSON", void.class, HttpExchange.class, JSONObject.class);
+    private static final MethodHandle SEND_BYTES = Server.staticMethod(SERVER, "sendJSON", void.class, HttpExchange.class, byte[].class);
+    
+    @Param({"5", "500"})
+    int courses;
+    
+    private JSONObject payload;
+    private byte[] encoded;
+    private NullExchange exchange;
+    
+    @Setup
+    public void setup() {
+        JSONArray array = new JSONArray();
+        for (int id = 1; id <= courses; id++) {
+            array.put(new JSONObject()
+                .put("id", id)
+                .put("title", "Applied Systems " + id)
+                .put("description", "Course covering applied systems with weekly labs and assessments")
+                .put("instructor", "Dr. Instructor " + (id % 50))
+                .put("duration", "8 weeks")
+                .put("credits", 1 + id % 5)
+                .put("category", Seeder.CATEGORIES[id % Seeder.CATEGORIES.length]));
+        }
+        payload = new JSONObject().put("courses", array);
+        encoded = payload.toString().getBytes(StandardCharsets.UTF_8);
+        exchange = new NullExchange("/api/courses");
+    }
+    
+    @Benchmark
+    public long sendJsonTree() throws Throwable {
+        SEND_TREE.invoke((HttpExchange) exchange.reset(), payload);
+        return exchange.bytesWritten;
+    }
+    
+    @Benchmark
+    public long sendPreEncoded() throws Throwable {
+        SEND_BYTES.invoke((HttpExchange) exchange.reset(), encoded);
+        return exchange.bytesWritten;
+    }
+}
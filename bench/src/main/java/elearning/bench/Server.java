@@ -0,0 +1,78 @@
+package elearning.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to ELearningServer internals. The server lives in the unnamed package,
+ * which named packages cannot import, so benchmarks reach its nested classes
+ * through method handles. Keep the handles in static final fields so the JIT
+ * can inline through them.
+ */
+final class Server {
+    private Server() {}
+    
+    static Class<?> type(String nested) {
+        try {
+            return Class.forName(nested == null ? "ELearningServer" : "ELearningServer$" + nested);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("ELearningServer is not on the classpath", e);
+        }
+    }
+    
+    static MethodHandle staticMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return lookup(owner).findStatic(owner, name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            return lookup(owner).findConstructor(owner, MethodType.methodType(void.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static Object staticField(Class<?> owner, String name) {
+        try {
+            return lookup(owner).findStaticVarHandle(owner, name, owner.getDeclaredField(name).getType()).get();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static Object field(Object target, String name) {
+        try {
+            Class<?> owner = target.getClass();
+            return lookup(owner).findVarHandle(owner, name, owner.getDeclaredField(name).getType()).get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /** Text of one of the server's fixed statements, e.g. {@code sql("TIMETABLE_FOR_USER")}. */
+    static String sql(String name) {
+        for (Object constant : type("Sql").getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return (String) field(constant, "text");
+            }
+        }
+        throw new IllegalArgumentException("No such statement: " + name);
+    }
+    
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+}
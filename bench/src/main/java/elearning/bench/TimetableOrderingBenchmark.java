@@ -0,0 +1,89 @@
+package elearning.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per-user timetable query with its CASE-over-day-names ORDER BY, against
+ * the same join unordered and sorted in memory on TimetableSlot's packed
+ * day/minute encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimetableOrderingBenchmark {
+    private static final Class<?> SLOT = Server.type("TimetableSlot");
+    private static final MethodHandle NEW_SLOT = Server.constructor(SLOT, ResultSet.class);
+    @SuppressWarnings("unchecked")
+    private static final Comparator<Object> ORDER = (Comparator<Object>) Server.staticField(SLOT, "ORDER");
+    private static final String UNORDERED = Server.sql("TIMETABLE_FOR_USER").replaceAll(" ORDER BY .*$", "");
+    
+    @Param({"10000"})
+    int users;
+    
+    private File file;
+    private Connection conn;
+    
+    @State(Scope.Thread)
+    public static class Statements {
+        PreparedStatement ordered;
+        PreparedStatement unordered;
+        
+        @Setup
+        public void setup(TimetableOrderingBenchmark bench) throws Exception {
+            ordered = bench.conn.prepareStatement(Server.sql("TIMETABLE_FOR_USER"));
+            unordered = bench.conn.prepareStatement(UNORDERED);
+        }
+    }
+    
+    @Setup
+    public void setup() throws Throwable {
+        file = File.createTempFile("timetable-bench", ".db");
+        conn = Seeder.open(file.getPath());
+        new Seeder(users, users / 50, 6, 0).seed(conn);
+    }
+    
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.close();
+        file.delete();
+    }
+    
+    @Benchmark
+    public void caseOrderedQuery(Statements s, Blackhole bh) throws Exception {
+        s.ordered.setInt(1, 1 + ThreadLocalRandom.current().nextInt(users));
+        try (ResultSet rs = s.ordered.executeQuery()) {
+            while (rs.next()) {
+                bh.consume(rs.getString("day"));
+                bh.consume(rs.getString("start_time"));
+                bh.consume(rs.getString("title"));
+            }
+        }
+    }
+    
+    @Benchmark
+    public List<Object> slotSortedInMemory(Statements s) throws Throwable {
+        List<Object> slots = new ArrayList<>();
+        s.unordered.setInt(1, 1 + ThreadLocalRandom.current().nextInt(users));
+        try (ResultSet rs = s.unordered.executeQuery()) {
+            while (rs.next()) {
+                slots.add(NEW_SLOT.invoke(rs));
+            }
+        }
+        slots.sort(ORDER);
+        return slots;
+    }
+}
@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AttendanceStatsTest {
+    @TempDir
+    Path dir;
+
+    private static ELearningServer.AttendanceWriter.Mark mark(int userId, int courseId, String status) {
+        return new ELearningServer.AttendanceWriter.Mark(userId, courseId, "2026-01-05", status, "2026-01-05T09:00");
+    }
+
+    private ELearningServer.ConnectionPool pool(List<ELearningServer.AttendanceWriter.Mark> rows) throws Exception {
+        ELearningServer.ConnectionPool pool = new ELearningServer.ConnectionPool(
+            "jdbc:sqlite:" + Files.createTempFile(dir, "attendance", ".db"), 2, 5000, Map.of());
+        try (ELearningServer.ConnectionPool.Lease lease = pool.write()) {
+            ELearningServer.Migrations.apply(lease.connection());
+            lease.connection().setAutoCommit(false);
+            PreparedStatement stmt = lease.prepare(ELearningServer.Sql.MARK_ATTENDANCE);
+            for (ELearningServer.AttendanceWriter.Mark mark : rows) {
+                stmt.setInt(1, mark.userId);
+                stmt.setInt(2, mark.courseId);
+                stmt.setString(3, mark.date);
+                stmt.setString(4, mark.status);
+                stmt.setString(5, mark.markedAt);
+                stmt.executeUpdate();
+            }
+            lease.connection().commit();
+        }
+        return pool;
+    }
+
+    @Test
+    void summariesCountEveryStatus() {
+        ELearningServer.AttendanceStats stats = new ELearningServer.AttendanceStats();
+        stats.marked(List.of(mark(1, 10, "Present"), mark(1, 10, "late"), mark(1, 10, "Absent"), mark(1, 20, "excused")));
+        stats.marked(List.of(mark(2, 10, "PRESENT")));
+
+        JSONObject pair = stats.userCourse(1, 10);
+        assertEquals(1, pair.getInt("present"));
+        assertEquals(1, pair.getInt("late"));
+        assertEquals(1, pair.getInt("absent"));
+        assertEquals(3, pair.getInt("total"));
+        // Late counts as attended
+        assertEquals(66.7, pair.getDouble("rate"));
+
+        JSONObject user = stats.user(1);
+        assertEquals(4, user.getJSONObject("overall").getInt("total"));
+        assertEquals(1, user.getJSONObject("overall").getInt("other"));
+        JSONArray courses = user.getJSONArray("courses");
+        assertEquals(2, courses.length());
+        assertEquals(10, courses.getJSONObject(0).getInt("courseId"));
+        assertEquals(20, courses.getJSONObject(1).getInt("courseId"));
+
+        JSONObject course = stats.course(10);
+        assertEquals(4, course.getInt("total"));
+        assertEquals(2, course.getInt("students"));
+        assertEquals(2, course.getInt("present"));
+    }
+
+    @Test
+    void unknownKeysReportZero() {
+        ELearningServer.AttendanceStats stats = new ELearningServer.AttendanceStats();
+
+        assertEquals(0, stats.user(9).getJSONObject("overall").getInt("total"));
+        assertEquals(0, stats.user(9).getJSONArray("courses").length());
+        assertEquals(0, stats.course(9).getInt("students"));
+        assertEquals(0.0, stats.userCourse(9, 9).getDouble("rate"));
+    }
+
+    @Test
+    void rebuildMatchesIncrementalCountsAndReplacesThem() throws Exception {
+        List<ELearningServer.AttendanceWriter.Mark> rows = new ArrayList<>();
+        String[] statuses = {"Present", "Absent", "Late", "Excused"};
+        for (int i = 0; i < 500; i++) {
+            rows.add(mark(1 + i % 7, 100 + i % 5, statuses[i % 4]));
+        }
+        ELearningServer.AttendanceStats incremental = new ELearningServer.AttendanceStats();
+        incremental.marked(rows);
+        ELearningServer.ConnectionPool pool = pool(rows);
+
+        ELearningServer.AttendanceStats rebuilt = new ELearningServer.AttendanceStats();
+        rebuilt.marked(List.of(mark(99, 100, "Present")));
+        rebuilt.rebuild(pool, 3);
+        // A second rebuild recounts instead of adding on top
+        rebuilt.rebuild(pool, 4);
+
+        assertEquals(incremental.stats().toString(), rebuilt.stats().toString());
+        for (int user = 1; user <= 7; user++) {
+            assertEquals(incremental.user(user).toString(), rebuilt.user(user).toString());
+        }
+        for (int course = 100; course < 105; course++) {
+            assertEquals(incremental.course(course).toString(), rebuilt.course(course).toString());
+        }
+        assertEquals(0, rebuilt.user(99).getJSONObject("overall").getInt("total"));
+    }
+
+    @Test
+    void rebuildOfAnEmptyTableClearsTheCounters() throws Exception {
+        ELearningServer.AttendanceStats stats = new ELearningServer.AttendanceStats();
+        stats.marked(List.of(mark(1, 10, "Present")));
+
+        stats.rebuild(pool(List.of()), 2);
+
+        assertEquals(0, stats.stats().getInt("pairs"));
+        assertEquals(0, stats.course(10).getInt("total"));
+    }
+}
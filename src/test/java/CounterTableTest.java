@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CounterTableTest {
+    @Test
+    void insertsZeroedRowsAndFindsThem() {
+        ELearningServer.CounterTable table = new ELearningServer.CounterTable(3, 4);
+
+        assertEquals(-1, table.find(42));
+        int row = table.findOrInsert(42);
+        assertEquals(1, table.size());
+        assertEquals(row, table.find(42));
+        assertEquals(row, table.findOrInsert(42));
+        assertEquals(1, table.size());
+        for (int c = 0; c < 3; c++) {
+            assertEquals(0, table.get(row, c));
+        }
+
+        table.add(row, 0, 5);
+        table.add(row, 0, -2);
+        table.set(row, 2, 9);
+        assertEquals(3, table.get(row, 0));
+        assertEquals(0, table.get(row, 1));
+        assertEquals(9, table.get(row, 2));
+    }
+
+    @Test
+    void keysThatCollideStayApart() {
+        ELearningServer.CounterTable table = new ELearningServer.CounterTable(1, 4);
+        // Negative keys, zero and keys differing only in the high word all probe somewhere
+        long[] keys = {0, -1, 1L << 32, (1L << 32) | 1, Long.MAX_VALUE, ELearningServer.AttendanceStats.key(-5, 7)};
+        for (int i = 0; i < keys.length; i++) {
+            table.add(table.findOrInsert(keys[i]), 0, i + 1);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i + 1, table.get(table.find(keys[i]), 0), "key " + keys[i]);
+        }
+        assertNotEquals(table.find(0), table.find(1L << 32));
+    }
+
+    @Test
+    void growingKeepsEveryRowAndItsCounters() {
+        ELearningServer.CounterTable table = new ELearningServer.CounterTable(2, 1);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(5000) * 31L - 70000;
+            table.add(table.findOrInsert(key), 1, 1);
+            expected.merge(key, 1, Integer::sum);
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+            int row = table.find(e.getKey());
+            assertEquals(e.getValue(), table.get(row, 1));
+            assertEquals(0, table.get(row, 0));
+        }
+        assertEquals(-1, table.find(-70001));
+    }
+}
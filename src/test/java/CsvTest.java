@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CsvTest {
+    private static BufferedReader reader(String text) {
+        return new BufferedReader(new StringReader(text));
+    }
+
+    @Test
+    void splitsPlainRecordsOnCrlfAndLf() throws IOException {
+        BufferedReader in = reader("a,b,c\r\n1,,3\nlast,row");
+
+        assertEquals(List.of("a", "b", "c"), ELearningServer.Csv.read(in));
+        assertEquals(List.of("1", "", "3"), ELearningServer.Csv.read(in));
+        assertEquals(List.of("last", "row"), ELearningServer.Csv.read(in));
+        assertNull(ELearningServer.Csv.read(in));
+    }
+
+    @Test
+    void quotedFieldsKeepCommasDoubledQuotesAndLineBreaks() throws IOException {
+        BufferedReader in = reader("\"x, y\",\"say \"\"hi\"\"\",\"two\r\nlines\"\r\nnext,\"\"\r\n");
+
+        assertEquals(List.of("x, y", "say \"hi\"", "two\r\nlines"), ELearningServer.Csv.read(in));
+        assertEquals(List.of("next", ""), ELearningServer.Csv.read(in));
+        assertNull(ELearningServer.Csv.read(in));
+    }
+
+    @Test
+    void trailingCommaYieldsEmptyLastField() throws IOException {
+        assertEquals(List.of("a", ""), ELearningServer.Csv.read(reader("a,\n")));
+    }
+
+    @Test
+    void readsBackWhatWriteProduces() throws IOException {
+        List<String> values = Arrays.asList("plain", "with,comma", "with \"quote\"", "multi\nline", "", "tail\r");
+        StringWriter out = new StringWriter();
+        ELearningServer.Csv.write(out, values);
+        ELearningServer.Csv.write(out, List.of("second"));
+
+        BufferedReader in = reader(out.toString());
+        assertEquals(values, ELearningServer.Csv.read(in));
+        assertEquals(List.of("second"), ELearningServer.Csv.read(in));
+        assertNull(ELearningServer.Csv.read(in));
+    }
+}
@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+    private static final int LAST = ELearningServer.Metrics.Histogram.index(Long.MAX_VALUE);
+
+    @Test
+    void smallValuesHaveBucketsOfTheirOwn() {
+        for (int v = 0; v < 32; v++) {
+            assertEquals(v, ELearningServer.Metrics.Histogram.index(v));
+            assertEquals(v, ELearningServer.Metrics.Histogram.upperBound(v));
+        }
+        assertEquals(0, ELearningServer.Metrics.Histogram.index(-5));
+    }
+
+    @Test
+    void everyBucketStartsRightAfterThePreviousUpperBound() {
+        for (int i = 0; i < LAST; i++) {
+            long upper = ELearningServer.Metrics.Histogram.upperBound(i);
+            assertEquals(i, ELearningServer.Metrics.Histogram.index(upper), "upper bound of bucket " + i);
+            assertEquals(i + 1, ELearningServer.Metrics.Histogram.index(upper + 1), "value after bucket " + i);
+        }
+    }
+
+    @Test
+    void bucketsStayWithinOneSixteenthOfTheValue() {
+        for (long v = 16; v < 1L << 36; v = v * 5 / 4 + 1) {
+            long upper = ELearningServer.Metrics.Histogram.upperBound(ELearningServer.Metrics.Histogram.index(v));
+            assertTrue(upper >= v && upper - v <= v / 16, "value " + v + " reported as " + upper);
+        }
+    }
+
+    @Test
+    void percentileReportsTheBucketUpperBound() {
+        long[] values = new long[LAST + 1];
+        values[ELearningServer.Metrics.Histogram.index(100)] = 90;
+        values[ELearningServer.Metrics.Histogram.index(5000)] = 10;
+
+        assertEquals(ELearningServer.Metrics.Histogram.upperBound(ELearningServer.Metrics.Histogram.index(100)),
+            ELearningServer.Metrics.Histogram.percentile(values, 100, 0.9));
+        assertEquals(ELearningServer.Metrics.Histogram.upperBound(ELearningServer.Metrics.Histogram.index(5000)),
+            ELearningServer.Metrics.Histogram.percentile(values, 100, 0.91));
+        assertEquals(0, ELearningServer.Metrics.Histogram.percentile(new long[LAST + 1], 0, 0.5));
+    }
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImportTest {
+    static {
+        // Small batches so a handful of rows spans several commits; read once when ImportHandler loads
+        System.setProperty("elearning.bulk.batchSize", "2");
+    }
+
+    @TempDir
+    Path dir;
+
+    private ELearningServer.ConnectionPool pool() throws Exception {
+        ELearningServer.ConnectionPool pool = new ELearningServer.ConnectionPool(
+            "jdbc:sqlite:" + Files.createTempFile(dir, "import", ".db"), 2, 5000, Map.of());
+        try (ELearningServer.ConnectionPool.Lease lease = pool.write()) {
+            ELearningServer.Migrations.apply(lease.connection());
+        }
+        return pool;
+    }
+
+    private static List<String> column(ELearningServer.ConnectionPool pool, String sql) throws Exception {
+        List<String> values = new ArrayList<>();
+        try (ELearningServer.ConnectionPool.Lease lease = pool.read();
+             ResultSet rs = lease.connection().createStatement().executeQuery(sql)) {
+            while (rs.next()) {
+                values.add(rs.getString(1));
+            }
+        }
+        return values;
+    }
+
+    private static ELearningServer.ImportHandler.Result load(ELearningServer.ConnectionPool pool, ELearningServer.BulkTable table,
+            String body, boolean csv) throws Exception {
+        return ELearningServer.ImportHandler.load(pool, table, new BufferedReader(new StringReader(body)), csv);
+    }
+
+    @Test
+    void csvCoursesKeepIdsAndReportBadRowsByLine() throws Exception {
+        ELearningServer.ConnectionPool pool = pool();
+        ELearningServer.ImportHandler.Result result = load(pool, ELearningServer.BulkTable.COURSES,
+            "id,title,credits,description\r\n"
+            + "7,Algebra,3,\"Groups, rings\nand fields\"\r\n"
+            + ",Unnumbered,2,\r\n"
+            + "8,,3,no title\r\n"
+            + "9,Bad credits,three,\r\n"
+            + "7,Duplicate id,1,\r\n"
+            + "10,Logic,4,\r\n", true);
+
+        assertEquals(6, result.rows);
+        assertEquals(3, result.inserted);
+        assertEquals(3, result.failed);
+        // The quoted description spans two physical lines, so records are numbered by record, not line
+        assertEquals(List.of(4L, 5L, 6L), new ArrayList<>(result.errors.keySet()));
+        assertEquals("Missing title", result.errors.get(4L));
+        assertEquals("Invalid credits: three", result.errors.get(5L));
+        assertTrue(result.errors.get(6L).contains("UNIQUE"), result.errors.get(6L));
+
+        assertEquals(List.of("7", "8", "10"), column(pool, "SELECT id FROM courses ORDER BY id"));
+        assertEquals(List.of("Groups, rings\nand fields"), column(pool, "SELECT description FROM courses WHERE id=7"));
+    }
+
+    @Test
+    void ndjsonReportsMalformedLinesAndSkipsBlankOnes() throws Exception {
+        ELearningServer.ConnectionPool pool = pool();
+        ELearningServer.ImportHandler.Result result = load(pool, ELearningServer.BulkTable.ENROLLMENTS,
+            "{\"userId\":1,\"courseId\":2,\"enrollmentDate\":\"2026-01-10\"}\n"
+            + "\n"
+            + "{\"userId\":1,\n"
+            + "{\"userId\":1,\"courseId\":2}\n"
+            + "{\"userId\":2,\"courseId\":2,\"progress\":40}\n", false);
+
+        assertEquals(4, result.rows);
+        assertEquals(2, result.inserted);
+        assertEquals(List.of(3L, 4L), new ArrayList<>(result.errors.keySet()));
+        assertEquals(List.of("1:2:0", "2:2:40"), column(pool, "SELECT user_id || ':' || course_id || ':' || progress FROM enrollments ORDER BY id"));
+    }
+
+    @Test
+    void rejectedTimetableRowsGiveTheirBookingBack() throws Exception {
+        ELearningServer.ConnectionPool pool = pool();
+        ELearningServer.ImportHandler.Result result = load(pool, ELearningServer.BulkTable.TIMETABLE,
+            "id,courseId,day,startTime,endTime,room,instructor\n"
+            + "1,501,Monday,09:00,10:00,Import Hall A,Import Ng\n"
+            + "1,502,Monday,11:00,12:00,Import Hall A,Import Ng\n"
+            + "2,503,Monday,09:30,10:30,import hall a,Import Other\n"
+            + "3,504,Monday,13:00,12:00,Import Hall A,Import Ng\n", true);
+
+        assertEquals(1, result.inserted);
+        assertEquals(3, result.failed);
+        assertTrue(result.errors.get(3L).contains("UNIQUE"), result.errors.get(3L));
+        assertTrue(result.errors.get(4L).startsWith("Import Hall A is booked Monday 09:00-10:00"), result.errors.get(4L));
+        assertEquals("End time must be after start time", result.errors.get(5L));
+
+        // The inserted row still holds its slot; the duplicate-id row released exactly its own
+        result = load(pool, ELearningServer.BulkTable.TIMETABLE,
+            "courseId,day,startTime,endTime,room,instructor\n"
+            + "600,Monday,09:00,09:30,Import Hall A,\n"
+            + "600,Monday,11:00,12:00,Import Hall A,Import Ng\n", true);
+        assertEquals(List.of(2L), new ArrayList<>(result.errors.keySet()));
+        assertEquals(1, result.inserted);
+    }
+
+    @Test
+    void brokenUploadKeepsCommittedBatchesAndReleasesTheRest() throws Exception {
+        ELearningServer.ConnectionPool pool = pool();
+        String rows = "id,courseId,day,startTime,endTime,room,instructor\n"
+            + "11,511,Tuesday,08:00,09:00,Import Hall B,\n"
+            + "12,512,Tuesday,09:00,10:00,Import Hall B,\n"
+            + "13,513,Tuesday,10:00,11:00,Import Hall B,\n";
+        Reader breaking = new StringReader(rows) {
+            private int read;
+
+            public int read(char[] buf, int off, int len) throws IOException {
+                if (read >= rows.length()) {
+                    throw new IOException("Connection reset");
+                }
+                int n = super.read(buf, off, Math.min(len, 16));
+                read += Math.max(0, n);
+                return n;
+            }
+        };
+
+        assertThrows(IOException.class, () -> ELearningServer.ImportHandler.load(
+            pool, ELearningServer.BulkTable.TIMETABLE, new BufferedReader(breaking, 16), true));
+
+        assertEquals(List.of("11", "12"), column(pool, "SELECT id FROM timetable ORDER BY id"));
+        // The committed rows keep their slots; the one left unflushed gave its slot back
+        ELearningServer.ImportHandler.Result result = load(pool, ELearningServer.BulkTable.TIMETABLE,
+            "courseId,day,startTime,endTime,room,instructor\n"
+            + "610,Tuesday,09:30,09:45,Import Hall B,\n"
+            + "610,Tuesday,10:00,11:00,Import Hall B,\n", true);
+        assertEquals(List.of(2L), new ArrayList<>(result.errors.keySet()));
+        assertEquals(1, result.inserted);
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+    private static String written(RecordingExchange ex) {
+        return new String(ex.body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void smallResponseGoesOutWithExactContentLength() throws IOException {
+        RecordingExchange ex = new RecordingExchange();
+        new ELearningServer.JsonWriter(ex, 200).beginObject().field("a", 1).field("b", "x").endObject().finish();
+
+        assertEquals("{\"a\":1,\"b\":\"x\"}", written(ex));
+        assertEquals(1, ex.headerCalls);
+        assertEquals(200, ex.responseCode);
+        assertEquals(ex.body.size(), ex.responseLength);
+        assertTrue(ex.closed);
+    }
+
+    @Test
+    void encodesMultiByteCharactersAndSurrogatePairsAsUtf8() throws IOException {
+        String text = "café € 😀 中";
+        RecordingExchange ex = new RecordingExchange();
+        new ELearningServer.JsonWriter(ex, 200).beginObject().field("s", text).endObject().finish();
+
+        assertEquals("{\"s\":\"" + text + "\"}", written(ex));
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length + 8, ex.body.size());
+    }
+
+    @Test
+    void escapesControlsQuotesLoneSurrogatesAndLineSeparators() throws IOException {
+        String text = "q\"b\\n\n\r\t\u0001\u2028\ud83d!\ude00";
+        RecordingExchange ex = new RecordingExchange();
+        new ELearningServer.JsonWriter(ex, 200).beginObject().field("s", text).endObject().finish();
+
+        String json = written(ex);
+        assertEquals("{\"s\":\"q\\\"b\\\\n\\n\\r\\t\\u0001\\u2028\\ud83d!\\ude00\"}", json);
+        assertEquals(text, new JSONObject(json).getString("s"));
+    }
+
+    @Test
+    void writesNumbersIncludingExtremes() throws IOException {
+        RecordingExchange ex = new RecordingExchange();
+        new ELearningServer.JsonWriter(ex, 200).beginArray()
+            .value(0).value(-7).value(Long.MAX_VALUE).value(Long.MIN_VALUE).value(true).value((String) null)
+            .endArray().finish();
+
+        assertEquals("[0,-7,9223372036854775807,-9223372036854775808,true,null]", written(ex));
+    }
+
+    @Test
+    void switchesToChunkedTransferPastTheBuffer() throws IOException {
+        RecordingExchange ex = new RecordingExchange();
+        ELearningServer.JsonWriter json = new ELearningServer.JsonWriter(ex, 200);
+        json.beginObject().name("rows").beginArray();
+        int rows = 5000;
+        for (int i = 0; i < rows; i++) {
+            // Multi-byte characters make rows straddle buffer boundaries at odd offsets
+            json.beginObject().field("id", i).field("name", "résumé 😀 " + i).endObject();
+        }
+        json.endArray().endObject();
+        assertTrue(json.committed());
+        json.finish();
+
+        assertEquals(1, ex.headerCalls);
+        assertEquals(0, ex.responseLength);
+        JSONArray parsed = new JSONObject(written(ex)).getJSONArray("rows");
+        assertEquals(rows, parsed.length());
+        assertEquals("résumé 😀 4999", parsed.getJSONObject(rows - 1).getString("name"));
+    }
+}
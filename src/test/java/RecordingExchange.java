@@ -0,0 +1,87 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/** An HttpExchange that keeps the response status, declared length and body for assertions. */
+final class RecordingExchange extends HttpExchange {
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int responseCode = -1;
+    long responseLength = Long.MIN_VALUE;
+    int headerCalls;
+    boolean closed;
+
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    public URI getRequestURI() {
+        return URI.create("/");
+    }
+
+    public String getRequestMethod() {
+        return "GET";
+    }
+
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    public OutputStream getResponseBody() {
+        return body;
+    }
+
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        this.responseCode = rCode;
+        this.responseLength = responseLength;
+        headerCalls++;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    public void setAttribute(String name, Object value) {}
+
+    public void setStreams(InputStream i, OutputStream o) {}
+
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ScheduleIndexTest {
+    private static final int MONDAY = 0;
+    private static final int TUESDAY = 1;
+
+    private static int t(String time) {
+        return ELearningServer.TimetableSlot.parseTime(time);
+    }
+
+    private static ELearningServer.ScheduleIndex.Booking reserve(ELearningServer.ScheduleIndex index, int course, int day,
+            String start, String end, String room, String instructor) {
+        return index.reserve(course, day, t(start), t(end), room, instructor);
+    }
+
+    @Test
+    void backToBackSlotsDoNotConflict() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        reserve(index, 1, MONDAY, "09:00", "10:00", "R1", "Smith");
+        reserve(index, 2, MONDAY, "10:00", "11:00", "R1", "Smith");
+        reserve(index, 3, MONDAY, "08:00", "09:00", "R1", "Smith");
+    }
+
+    @Test
+    void overlappingRoomOrInstructorIsRejectedCaseInsensitively() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        reserve(index, 1, MONDAY, "09:00", "11:00", "Room 101", "Dr. Smith");
+
+        ELearningServer.ScheduleIndex.Conflict room = assertThrows(ELearningServer.ScheduleIndex.Conflict.class,
+            () -> reserve(index, 2, MONDAY, "10:59", "12:00", " room 101 ", "Other"));
+        assertEquals(1, room.bookings.size());
+        assertTrue(room.getMessage().startsWith("Room 101 is booked Monday 09:00-11:00"));
+
+        assertThrows(ELearningServer.ScheduleIndex.Conflict.class,
+            () -> reserve(index, 2, MONDAY, "08:00", "09:01", "Lab", "DR. SMITH"));
+        // Same times on another day are free
+        reserve(index, 2, TUESDAY, "09:00", "11:00", "Room 101", "Dr. Smith");
+    }
+
+    @Test
+    void overlapScanReachesBackOverTheLongestBooking() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        reserve(index, 1, MONDAY, "08:00", "16:00", "Hall", "A");
+        reserve(index, 2, MONDAY, "09:00", "09:30", "Lab", "B");
+
+        // Starts seven hours after the long booking, which must still be found
+        assertThrows(ELearningServer.ScheduleIndex.Conflict.class,
+            () -> reserve(index, 3, MONDAY, "15:30", "15:45", "Hall", "C"));
+        reserve(index, 3, MONDAY, "16:00", "16:15", "Hall", "C");
+    }
+
+    @Test
+    void blankRoomAndInstructorBookNothing() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        reserve(index, 1, MONDAY, "09:00", "10:00", "", null);
+        reserve(index, 2, MONDAY, "09:00", "10:00", " ", "");
+    }
+
+    @Test
+    void releaseAndCourseDeletionFreeTheSlot() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        ELearningServer.ScheduleIndex.Booking booking = reserve(index, 1, MONDAY, "09:00", "10:00", "R1", "A");
+        index.release(booking);
+        reserve(index, 2, MONDAY, "09:00", "10:00", "R1", "A");
+
+        index.courseDeleted(2);
+        reserve(index, 3, MONDAY, "09:30", "10:30", "R1", "A");
+        assertEquals(1, index.stats().getInt("bookings"));
+    }
+
+    @Test
+    void freeSlotsMergeRoomAndInstructorBookingsAndClipToTheWindow() {
+        ELearningServer.ScheduleIndex index = new ELearningServer.ScheduleIndex();
+        reserve(index, 1, MONDAY, "07:00", "09:00", "R1", "X");
+        reserve(index, 2, MONDAY, "10:00", "11:00", "Other", "A");
+        reserve(index, 3, MONDAY, "10:30", "12:00", "R1", "Y");
+        reserve(index, 4, MONDAY, "12:00", "12:20", "R1", "Z");
+        reserve(index, 5, MONDAY, "17:30", "19:00", "Lab", "A");
+        reserve(index, 6, TUESDAY, "08:00", "18:00", "R1", "Z");
+
+        List<int[]> free = index.free(MONDAY, t("08:00"), t("18:00"), 30, "R1", "a");
+        assertEquals(2, free.size());
+        assertArrayEquals(new int[] {t("09:00"), t("10:00")}, free.get(0));
+        assertArrayEquals(new int[] {t("12:20"), t("17:30")}, free.get(1));
+
+        // A shorter minimum admits nothing new; the gaps are already maximal
+        assertEquals(2, index.free(MONDAY, t("08:00"), t("18:00"), 1, "R1", "a").size());
+        assertTrue(index.free(TUESDAY, t("08:00"), t("18:00"), 1, "R1", null).isEmpty());
+        assertEquals(1, index.free(TUESDAY, t("08:00"), t("18:00"), 600, "Lab", null).size());
+    }
+}
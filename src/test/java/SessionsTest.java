@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+class SessionsTest {
+    private static final int ITERATIONS = 1000;
+
+    private static ELearningServer.Sessions sessions(String secret, long tokenTtlSeconds) {
+        return new ELearningServer.Sessions(secret, ITERATIONS, tokenTtlSeconds, 600, 100);
+    }
+
+    private static String payload(String token) {
+        return new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void issuedTokenVerifiesToItsUserAndRole() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+        String token = sessions.issue(7, "student");
+
+        ELearningServer.Sessions.Session session = sessions.verify(token);
+        assertNotNull(session);
+        assertEquals(7, session.userId);
+        assertEquals("student", session.role);
+        assertFalse(session.isAdmin());
+        assertTrue(session.mayActFor(7));
+        assertFalse(session.mayActFor(8));
+        // A restart with the same secret accepts it without the cached session
+        assertNotNull(sessions("secret", 3600).verify(token));
+    }
+
+    @Test
+    void tamperedPayloadIsRejected() {
+        String token = sessions("secret", 3600).issue(7, "student");
+        String signature = token.substring(token.indexOf('.') + 1);
+        String[] fields = payload(token).split(":");
+        String forged = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((fields[0] + ":admin:" + fields[2]).getBytes(StandardCharsets.UTF_8)) + "." + signature;
+
+        assertNull(sessions("secret", 3600).verify(forged));
+    }
+
+    @Test
+    void tokenSignedWithAnotherKeyIsRejected() {
+        String token = sessions("other", 3600).issue(1, "admin");
+
+        assertNull(sessions("secret", 3600).verify(token));
+        assertNull(sessions(null, 3600).verify(token));
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+        String token = sessions.issue(1, "student");
+
+        for (String bad : new String[] {"", ".", "abc", ".abc", "abc.", "a.b.c", "!!!.???", token + "x", token.substring(0, token.length() - 1)}) {
+            assertNull(sessions.verify(bad), bad);
+        }
+        assertEquals(9, sessions.stats().getLong("rejectedTokens"));
+    }
+
+    @Test
+    void expiredTokenIsRejectedEvenWhenCached() {
+        ELearningServer.Sessions sessions = sessions("secret", -1);
+        String token = sessions.issue(1, "student");
+
+        assertNull(sessions.verify(token));
+        assertNull(sessions("secret", 3600).verify(token));
+    }
+
+    @Test
+    void hashedPasswordsVerifyAndAreSalted() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+        String first = sessions.hash("hunter2");
+        String second = sessions.hash("hunter2");
+
+        assertTrue(ELearningServer.Sessions.isHashed(first));
+        assertNotEquals(first, second);
+        assertTrue(sessions.matches("hunter2", first));
+        assertTrue(sessions.matches("hunter2", second));
+        assertFalse(sessions.matches("hunter3", first));
+        assertFalse(sessions.matches("", first));
+        assertFalse(sessions.needsRehash(first));
+    }
+
+    @Test
+    void storedIterationCountIsHonouredAndOlderHashesAreUpgraded() {
+        String weaker = new ELearningServer.Sessions("secret", ITERATIONS / 2, 3600, 600, 100).hash("pw");
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+
+        assertTrue(sessions.matches("pw", weaker));
+        assertTrue(sessions.needsRehash(weaker));
+    }
+
+    @Test
+    void legacyPlaintextMatchesOnceAndIsUpgraded() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+
+        assertFalse(ELearningServer.Sessions.isHashed("ankit123"));
+        assertTrue(sessions.matches("ankit123", "ankit123"));
+        assertFalse(sessions.matches("ankit12", "ankit123"));
+        assertTrue(sessions.needsRehash("ankit123"));
+
+        String upgraded = sessions.hash("ankit123");
+        assertTrue(sessions.matches("ankit123", upgraded));
+        assertFalse(sessions.needsRehash(upgraded));
+    }
+
+    @Test
+    void everyCheckCostsOnePbkdf2Run() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+        String hash = sessions.hash("pw");
+        long before = sessions.stats().getLong("passwordHashes");
+
+        assertFalse(sessions.matches("pw", null));
+        assertTrue(sessions.matches("pw", "pw"));
+        assertTrue(sessions.matches("pw", hash));
+        assertEquals(before + 3, sessions.stats().getLong("passwordHashes"));
+    }
+
+    @Test
+    void rememberedCredentialNeedsTheSamePassword() {
+        ELearningServer.Sessions sessions = sessions("secret", 3600);
+        sessions.remember(3, "maya", "student", "pw");
+
+        assertEquals(3, sessions.recall("maya", "pw").userId);
+        assertNull(sessions.recall("maya", "pw2"));
+        assertNull(sessions.recall("other", "pw"));
+    }
+
+    @Test
+    void rememberedCredentialExpires() {
+        ELearningServer.Sessions sessions = new ELearningServer.Sessions("secret", ITERATIONS, 3600, -1, 100);
+        sessions.remember(3, "maya", "student", "pw");
+
+        assertNull(sessions.recall("maya", "pw"));
+    }
+}